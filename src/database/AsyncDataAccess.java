@@ -0,0 +1,217 @@
+package database;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import database.internal.TableName;
+import database.internal.dao.DAO;
+import database.internal.dao.IdDAO;
+import database.internal.dao.SimpleDAO;
+import database.internal.record.Record;
+import database.internal.record.RecordWithSingleId;
+import database.tools.filter.Page;
+import database.tools.filter.SelectFilter;
+
+/**
+ * Runs DAO operations asynchronously, so independent queries run at the same
+ * time. Each operation gets a DataAccessContext of its own from the provider
+ * (thus a pooled connection when a pool is configured), which is closed when
+ * the operation is done.
+ *
+ * The operations run on the given executor. By default, that is a virtual
+ * thread per operation when the jvm has them, and otherwise a cached pool of
+ * daemon threads; the pool size of the provider then limits how many queries
+ * run at once.
+ *
+ * A failed operation completes its future exceptionally with the
+ * DataAccessException. Filters passed in should not be changed until their
+ * future completes.
+ *
+ * @author pietervdvn
+ */
+public class AsyncDataAccess implements AutoCloseable {
+
+    /**
+     * Something to do with a context of its own
+     */
+    public interface Operation<R> {
+        R run(JDBCDataAccessContext dac) throws DataAccessException;
+    }
+
+    private final JDBCDataAccessProvider provider;
+    private final Executor executor;
+    /**
+     * The executor to shut down on close, null if it was given
+     */
+    private final ExecutorService owned;
+
+    public AsyncDataAccess(JDBCDataAccessProvider provider) {
+        this.provider = provider;
+        this.owned = createDefaultExecutor();
+        this.executor = owned;
+    }
+
+    public AsyncDataAccess(JDBCDataAccessProvider provider,
+            Executor executor) {
+        this.provider = provider;
+        this.executor = executor;
+        this.owned = null;
+    }
+
+    /**
+     * Runs the operation with a new context
+     */
+    public <R> CompletableFuture<R> submit(final Operation<R> operation) {
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    return;
+                }
+                try {
+                    JDBCDataAccessContext dac = provider.getDataAccessContext();
+                    try {
+                        result.complete(operation.run(dac));
+                    } finally {
+                        dac.close();
+                    }
+                } catch (Throwable e) {
+                    // only the first completion counts, a failing close is
+                    // not reported after a result
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    public <T extends RecordWithSingleId> CompletableFuture<T> getById(
+            final TableName table, final int id) {
+        return submit(new Operation<T>() {
+            @Override
+            public T run(JDBCDataAccessContext dac)
+                    throws DataAccessException {
+                return AsyncDataAccess.<T> getIdDAO(dac, table).getById(id);
+            }
+        });
+    }
+
+    public <T extends Record> CompletableFuture<List<T>> executeFilter(
+            final SelectFilter filter) {
+        return submit(new Operation<List<T>>() {
+            @Override
+            public List<T> run(JDBCDataAccessContext dac)
+                    throws DataAccessException {
+                return AsyncDataAccess.<T> getDAO(dac, filter).executeFilter(
+                        filter);
+            }
+        });
+    }
+
+    public <T extends Record> CompletableFuture<T> executeSingletonFilter(
+            final SelectFilter filter) {
+        return submit(new Operation<T>() {
+            @Override
+            public T run(JDBCDataAccessContext dac)
+                    throws DataAccessException {
+                return AsyncDataAccess.<T> getDAO(dac, filter)
+                        .executeSingletonFilter(filter);
+            }
+        });
+    }
+
+    public <T extends Record> CompletableFuture<Page<T>> executePage(
+            final SelectFilter filter, final int limit, final int offset) {
+        return submit(new Operation<Page<T>>() {
+            @Override
+            public Page<T> run(JDBCDataAccessContext dac)
+                    throws DataAccessException {
+                return AsyncDataAccess.<T> getDAO(dac, filter).executePage(
+                        filter, limit, offset);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> executeCount(final SelectFilter filter) {
+        return submit(new Operation<Integer>() {
+            @Override
+            public Integer run(JDBCDataAccessContext dac)
+                    throws DataAccessException {
+                return getSimpleDAO(dac, filter.getTableName()).executeCount(
+                        filter);
+            }
+        });
+    }
+
+    /**
+     * Stops the default executor, after the running operations. A given
+     * executor is left alone.
+     */
+    @Override
+    public void close() {
+        if (owned != null) {
+            owned.shutdown();
+        }
+    }
+
+    private static SimpleDAO<?> getSimpleDAO(JDBCDataAccessContext dac,
+            TableName table) {
+        SimpleDAO<?> dao = dac.getDAO(table);
+        if (dao == null) {
+            throw new IllegalArgumentException("No DAO for " + table);
+        }
+        return dao;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Record> DAO<T, ?> getDAO(
+            JDBCDataAccessContext dac, SelectFilter filter) {
+        SimpleDAO<?> dao = getSimpleDAO(dac, filter.getTableName());
+        if (!(dao instanceof DAO)) {
+            throw new IllegalArgumentException("The DAO of "
+                    + filter.getTableName() + " has no records");
+        }
+        return (DAO<T, ?>) dao;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends RecordWithSingleId> IdDAO<T, ?> getIdDAO(
+            JDBCDataAccessContext dac, TableName table) {
+        SimpleDAO<?> dao = getSimpleDAO(dac, table);
+        if (!(dao instanceof IdDAO)) {
+            throw new IllegalArgumentException("The DAO of " + table
+                    + " has no getById");
+        }
+        return (IdDAO<T, ?>) dao;
+    }
+
+    /**
+     * A virtual thread per task if the jvm has them (java 21+), else a cached
+     * pool of daemon threads
+     */
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            Method m = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private int started = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "async dao " + started++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -21,10 +22,17 @@ import database.internal.dao.PictureDAO;
 import database.internal.dao.SimpleDAO;
 import database.internal.record.RecordWithSingleId;
 import database.tools.DatabaseUtils;
+import database.tools.cache.IdentityMap;
+import database.tools.cache.Invalidation;
+import database.tools.cache.InvalidationBus;
+import database.tools.cache.PictureCache;
+import database.tools.cache.QueryCache;
+import database.tools.cache.RecordCache;
 import database.tools.filter.JDBCSingleFieldFilterExecutor;
 import database.tools.filter.SingleFieldFilterExecutor;
 import database.tools.logging.Logger;
 import database.tools.logging.LoggingConnection;
+import database.tools.pool.ConnectionPool;
 
 /**
  * JDBC Data Access Context
@@ -39,6 +47,45 @@ public class JDBCDataAccessContext implements DataAccessContext {
     private JDBCSingleFieldFilterExecutor singleFieldFilterExecutor;
 
     private boolean didReset = false;
+
+    /**
+     * The records loaded with this context, null when disabled
+     */
+    private IdentityMap identityMap;
+
+    /**
+     * When true, the picture DAO's store equal pictures only once
+     */
+    private boolean pictureDeduplication = false;
+
+    /**
+     * The pictures on disk shared by all contexts of the provider, can be
+     * null
+     */
+    private PictureCache pictureCache;
+
+    /**
+     * The records shared by all contexts of the provider, can be null
+     */
+    private RecordCache recordCache;
+    /**
+     * The filter results shared by all contexts of the provider, can be null
+     */
+    private QueryCache queryCache;
+    /**
+     * Tells other nodes about the writes of this context, can be null
+     */
+    private InvalidationBus invalidationBus;
+    /**
+     * Invalidations of the current transaction, which are done again at
+     * commit: until then, other contexts might cache the old records.
+     */
+    private List<Invalidation> pending = new ArrayList<>();
+    /**
+     * Depth of beginWrites: while above 0, the invalidations outside of a
+     * transaction are kept in pending as well, to publish them at once
+     */
+    private int writes = 0;
     
     /**
      * The user that is talking with the server, used for logging shizzle
@@ -78,9 +125,250 @@ public class JDBCDataAccessContext implements DataAccessContext {
         this.user = user;
     }
 
+    /**
+     * Creates a context on a pooled connection. Closing the context gives the
+     * connection back to the pool.
+     */
+    public JDBCDataAccessContext(Connection connection, int user,
+            OutputStream out, ConnectionPool pool) throws DataAccessException {
+        this(new LoggingConnection(connection, user, out, pool));
+        this.user = user;
+    }
+
     @Override
     public DataAccessContext getDacFor(int id) throws DataAccessException {
-        return new JDBCDataAccessContext(connection.getLoggingConnectionFor(id));
+        JDBCDataAccessContext dac = new JDBCDataAccessContext(
+                connection.getLoggingConnectionFor(id));
+        // same connection, same transaction, so the same records
+        dac.identityMap = identityMap;
+        dac.recordCache = recordCache;
+        dac.queryCache = queryCache;
+        dac.invalidationBus = invalidationBus;
+        dac.pending = pending;
+        dac.pictureDeduplication = pictureDeduplication;
+        dac.pictureCache = pictureCache;
+        return dac;
+    }
+
+    /**
+     * Enables or disables the identity map of this context. When enabled, each
+     * record is loaded at most once: getById returns the known record, and
+     * filters give the known instance for rows that were loaded before.
+     * Updates and deletes done with the DAO's of this context keep it up to
+     * date, a rollback of a transaction with writes clears it.
+     * 
+     * Changes by other contexts are not seen, so only use this for short
+     * lived contexts.
+     */
+    public void setIdentityMapEnabled(boolean enabled) {
+        if (!enabled) {
+            identityMap = null;
+        } else if (identityMap == null) {
+            identityMap = new IdentityMap();
+        }
+    }
+
+    /**
+     * Enables or disables the deduplication of pictures. When enabled, the
+     * picture DAO's hash each uploaded picture and refer to the large object
+     * already stored for that hash, if any (see PictureBlobs). Large objects
+     * are counted, and unlinked when the last picture field or record that
+     * refers to them is replaced or deleted with the DAO.
+     */
+    public void setPictureDeduplication(boolean enabled) {
+        this.pictureDeduplication = enabled;
+    }
+
+    public boolean isPictureDeduplication() {
+        return pictureDeduplication;
+    }
+
+    /**
+     * The identity map, null if it is not enabled
+     */
+    public IdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * Sets the cache shared with other contexts, null to use none. The DAO's
+     * only use it outside of transactions.
+     */
+    public void setRecordCache(RecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Sets the cache of filter results shared with other contexts, null to use
+     * none. The DAO's only use it outside of transactions, for filters with
+     * setCached(true).
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the disk cache the picture DAO's read whole pictures through, null
+     * to use none
+     */
+    public void setPictureCache(PictureCache pictureCache) {
+        this.pictureCache = pictureCache;
+    }
+
+    public PictureCache getPictureCache() {
+        return pictureCache;
+    }
+
+    /**
+     * Sets the bus on which the writes of this context are published, null
+     * to publish nothing. Writes in a transaction are published when it
+     * commits.
+     */
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
+
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    /**
+     * True when autocommit is off. Also true when it can't be checked.
+     */
+    public boolean isInTransaction() {
+        try {
+            return !connection.getAutoCommit();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    // Called by the DAO's after they wrote to the db, to keep the caches up
+    // to date
+
+    /**
+     * The record was added or updated, and holds the values in the db now
+     */
+    public void recordWritten(TableName table, RecordWithSingleId record) {
+        if (identityMap != null) {
+            identityMap.put(table, record);
+        }
+        invalidate(Invalidation.changed(table, record.getId()));
+    }
+
+    /**
+     * The record with this id was updated, some values are unknown
+     */
+    public void recordChanged(TableName table, int id) {
+        if (identityMap != null) {
+            identityMap.remove(table, id);
+        }
+        invalidate(Invalidation.changed(table, id));
+    }
+
+    /**
+     * The record with this id was deleted
+     */
+    public void recordDeleted(TableName table, int id) {
+        if (identityMap != null) {
+            identityMap.delete(table, id);
+        }
+        invalidate(Invalidation.deleted(table, id));
+    }
+
+    /**
+     * Any record of the table might be changed or deleted
+     */
+    public void tableChanged(TableName table) {
+        if (identityMap != null) {
+            identityMap.removeTable(table);
+        }
+        invalidate(Invalidation.table(table));
+    }
+
+    private void invalidate(Invalidation inv) {
+        if (recordCache == null && queryCache == null
+                && invalidationBus == null) {
+            return;
+        }
+        invalidateShared(inv);
+        if (writes > 0 || isInTransaction()) {
+            pending.add(inv);
+        } else if (invalidationBus != null) {
+            try {
+                invalidationBus.publish(connection,
+                        Collections.singletonList(inv));
+            } catch (SQLException e) {
+                // the write itself is done, other nodes might keep it cached
+                Logger.err.println("Could not publish " + inv + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts a statement or batch that writes many records: until the
+     * matching endWrites, their invalidations are collected like those of a
+     * transaction, and published as one message. Call endWrites in a finally
+     * block.
+     */
+    public void beginWrites() {
+        writes++;
+    }
+
+    /**
+     * Ends beginWrites. Outside of a transaction, the collected invalidations
+     * are published now; in a transaction, at the commit.
+     */
+    public void endWrites() {
+        if (--writes > 0 || isInTransaction()) {
+            return;
+        }
+        try {
+            publishPending();
+        } catch (SQLException e) {
+            // the writes themselves are done, other nodes might keep them
+            Logger.err.println("Could not publish " + pending.size()
+                    + " invalidations: " + e.getMessage());
+        }
+        invalidatePending();
+    }
+
+    /**
+     * Publishes the invalidations of the transaction, as part of that
+     * transaction
+     */
+    private void publishPending() throws SQLException {
+        if (invalidationBus != null && !pending.isEmpty()) {
+            invalidationBus.publish(connection, pending);
+        }
+    }
+
+    private void invalidateShared(Invalidation inv) {
+        if (recordCache != null) {
+            recordCache.invalidate(inv);
+        }
+        if (queryCache != null) {
+            queryCache.invalidate(inv);
+        }
+    }
+
+    /**
+     * Redoes the invalidations of the transaction that was just committed
+     */
+    private void invalidatePending() {
+        for (Invalidation inv : pending) {
+            invalidateShared(inv);
+        }
+        pending.clear();
     }
     
     @Override
@@ -113,6 +401,7 @@ public class JDBCDataAccessContext implements DataAccessContext {
 
     @Override
     public void close() throws DataAccessException {
+        pending.clear();
         try {
             connection.close();
         } catch (SQLException ex) {
@@ -159,6 +448,9 @@ public class JDBCDataAccessContext implements DataAccessContext {
 
     @Override
     public void begin() throws DataAccessException {
+        if (identityMap != null) {
+            identityMap.committed();
+        }
         try {
             connection.setAutoCommit(false);
         } catch (SQLException ex) {
@@ -170,15 +462,24 @@ public class JDBCDataAccessContext implements DataAccessContext {
     @Override
     public void commit() throws DataAccessException {
         try {
+            publishPending();
             connection.commit();
         } catch (SQLException ex) {
             Logger.out.println(ex);
             throw new DataAccessException("Commit failed", ex);
         }
+        if (identityMap != null) {
+            identityMap.committed();
+        }
+        invalidatePending();
     }
 
     @Override
     public void rollback() throws DataAccessException {
+        if (identityMap != null) {
+            identityMap.rolledBack();
+        }
+        pending.clear();
         try {
             connection.rollback();
         } catch (SQLException ex) {
@@ -190,11 +491,19 @@ public class JDBCDataAccessContext implements DataAccessContext {
     @Override
     public void startAutoCommit() throws DataAccessException {
         try {
+            if (!connection.getAutoCommit()) {
+                publishPending();
+            }
             connection.setAutoCommit(true);
         } catch (SQLException ex) {
             Logger.out.println(ex);
             throw new DataAccessException("Setting autocommit failed", ex);
         }
+        // switching autocommit on commits the transaction
+        if (identityMap != null) {
+            identityMap.committed();
+        }
+        invalidatePending();
     }
 
     @Override
@@ -222,6 +531,7 @@ public class JDBCDataAccessContext implements DataAccessContext {
                     null);
         }
         didReset = true;
+        clearCaches();
         try {
             new DatabaseUtils(this).reset();
         } catch (SQLException e) {
@@ -232,6 +542,7 @@ public class JDBCDataAccessContext implements DataAccessContext {
     @Override
     public void loadFromZip(InputStream in) throws IOException,
             DataAccessException {
+        clearCaches();
         new DatabaseUtils(this).loadFromZip(in);
     }
 
@@ -258,6 +569,34 @@ public class JDBCDataAccessContext implements DataAccessContext {
         return isEmpty;
     }
 
+    /**
+     * Forgets all records, for when the db is changed without the DAO's
+     */
+    private void clearCaches() {
+        if (identityMap != null) {
+            identityMap.clear();
+        }
+        if (recordCache != null) {
+            recordCache.clear();
+        }
+        if (queryCache != null) {
+            queryCache.clear();
+        }
+        pending.clear();
+        if (invalidationBus != null) {
+            List<Invalidation> all = new ArrayList<>();
+            for (TableName table : TableName.values()) {
+                all.add(Invalidation.table(table));
+            }
+            try {
+                invalidationBus.publish(connection, all);
+            } catch (SQLException e) {
+                Logger.err.println("Could not publish the invalidation of all tables: "
+                        + e.getMessage());
+            }
+        }
+    }
+
     @Override
     public JDBCDataAccessContext breakAbstraction() {
         return this;
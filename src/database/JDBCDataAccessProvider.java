@@ -20,7 +20,16 @@ import java.util.Set;
 
 import database.internal.Field;
 import database.internal.TableName;
+import database.tools.cache.Invalidation;
+import database.tools.cache.InvalidationBus;
+import database.tools.cache.PictureCache;
+import database.tools.cache.PostgresInvalidationBus;
+import database.tools.cache.QueryCache;
+import database.tools.cache.RecordCache;
 import database.tools.logging.Logger;
+import database.tools.logging.LoggingConnection;
+import database.tools.logging.StatementCache;
+import database.tools.pool.ConnectionPool;
 
 /**
  * 
@@ -35,6 +44,81 @@ public class JDBCDataAccessProvider implements DataAccessProvider {
     public static final String PASSWORD = "password";
     public static final String LOG = "log";
 
+    /**
+     * Pool settings. When POOL_MAX is set, contexts use pooled connections
+     * and closing a context gives its connection back to the pool.
+     */
+    public static final String POOL_MIN = "pool.min";
+    public static final String POOL_MAX = "pool.max";
+    /**
+     * Milliseconds to wait for a free connection
+     */
+    public static final String POOL_TIMEOUT = "pool.timeout";
+    /**
+     * Milliseconds a connection can be idle before being closed
+     */
+    public static final String POOL_IDLE = "pool.idle";
+    public static final String POOL_VALIDATE = "pool.validate";
+
+    /**
+     * Number of prepared statements cached per connection, 0 disables the
+     * cache
+     */
+    public static final String STATEMENT_CACHE = "statementcache.size";
+
+    /**
+     * When true, new contexts have their identity map enabled
+     */
+    public static final String IDENTITY_MAP = "identitymap";
+
+    /**
+     * Number of records in the record cache shared by all contexts, 0 (the
+     * default) disables it
+     */
+    public static final String RECORD_CACHE = "cache.size";
+    /**
+     * Milliseconds a record stays in the record cache, 0 for no limit
+     */
+    public static final String RECORD_CACHE_TTL = "cache.ttl";
+
+    /**
+     * Number of filter results in the query cache, 0 (the default) disables
+     * it. Only filters with setCached(true) use it.
+     */
+    public static final String QUERY_CACHE = "querycache.size";
+    /**
+     * Milliseconds a filter result stays in the query cache, 0 for no limit
+     */
+    public static final String QUERY_CACHE_TTL = "querycache.ttl";
+
+    /**
+     * Set to "postgres" to tell other nodes about writes with LISTEN/NOTIFY,
+     * see PostgresInvalidationBus
+     */
+    public static final String INVALIDATION = "invalidation";
+    public static final String INVALIDATION_CHANNEL = "invalidation.channel";
+
+    /**
+     * When true, new contexts store equal pictures only once
+     */
+    public static final String PICTURE_DEDUPLICATION = "picture.dedup";
+
+    /**
+     * Directory of the picture cache, no picture cache when not set
+     */
+    public static final String PICTURE_CACHE = "picturecache.dir";
+    /**
+     * Megabytes the picture cache may take on disk, 1024 by default
+     */
+    public static final String PICTURE_CACHE_SIZE = "picturecache.size";
+
+    private ConnectionPool pool;
+    private RecordCache recordCache;
+    private QueryCache queryCache;
+    private PictureCache pictureCache;
+    private InvalidationBus invalidationBus;
+    private boolean invalidationBusSet = false;
+
     /**
      * This map contains all the reverse dependencies. The set you get by
      * reverseDeps.get(table) will contains all tables that need this table E.g.
@@ -148,7 +232,26 @@ public class JDBCDataAccessProvider implements DataAccessProvider {
             throws DataAccessException {
         try {
             OutputStream out = getLogStream();
-            return new JDBCDataAccessContext(getConnection(), id, out);
+            ConnectionPool pool = getPool();
+            if (pool == null) {
+                JDBCDataAccessContext dac = new JDBCDataAccessContext(
+                        new LoggingConnection(getConnection(), id, out,
+                                new StatementCache(getStatementCacheSize())));
+                dac.setUser(id);
+                configure(dac);
+                return dac;
+            }
+            Connection c = pool.borrow();
+            try {
+                JDBCDataAccessContext dac = new JDBCDataAccessContext(c, id,
+                        out, pool);
+                configure(dac);
+                return dac;
+            } catch (Throwable ex) {
+                // also when configure fails on a property
+                pool.giveBack(c);
+                throw ex;
+            }
         } catch (SQLException ex) {
             throw new DataAccessException(
                     "Could not create data access context", ex);
@@ -156,6 +259,183 @@ public class JDBCDataAccessProvider implements DataAccessProvider {
 
     }
 
+    /**
+     * Gives the pool, creates it the first time. Returns null if no pool is
+     * configured in the properties.
+     */
+    public synchronized ConnectionPool getPool() {
+        if (pool == null && databaseProperties.containsKey(POOL_MAX)) {
+            int max = getIntProperty(POOL_MAX, 10);
+            pool = new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+                @Override
+                public Connection create() throws SQLException {
+                    return getConnection();
+                }
+            }, getIntProperty(POOL_MIN, Math.min(1, max)), max,
+                    getIntProperty(POOL_TIMEOUT, 30000), getIntProperty(
+                            POOL_IDLE, 600000), Boolean.parseBoolean(
+                            databaseProperties.getProperty(POOL_VALIDATE,
+                                    "true")));
+            pool.setStatementCacheSize(getStatementCacheSize());
+        }
+        return pool;
+    }
+
+    /**
+     * Closes the idle connections of the pool and the invalidation bus, if any
+     */
+    public synchronized void close() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+        if (invalidationBus != null) {
+            invalidationBus.close();
+            invalidationBus = null;
+        }
+    }
+
+    private int getStatementCacheSize() {
+        return getIntProperty(STATEMENT_CACHE, StatementCache.DEFAULT_SIZE);
+    }
+
+    private void configure(JDBCDataAccessContext dac) {
+        dac.setIdentityMapEnabled(Boolean.parseBoolean(databaseProperties
+                .getProperty(IDENTITY_MAP, "false")));
+        dac.setRecordCache(getRecordCache());
+        dac.setQueryCache(getQueryCache());
+        dac.setInvalidationBus(getInvalidationBus());
+        dac.setPictureDeduplication(Boolean.parseBoolean(databaseProperties
+                .getProperty(PICTURE_DEDUPLICATION, "false")));
+        dac.setPictureCache(getPictureCache());
+    }
+
+    /**
+     * The bus on which the contexts publish their writes, and on which the
+     * caches of this provider hear about the writes of other nodes. Created on
+     * first use when INVALIDATION is set, null otherwise.
+     */
+    public synchronized InvalidationBus getInvalidationBus() {
+        if (!invalidationBusSet) {
+            String kind = databaseProperties.getProperty(INVALIDATION);
+            if (kind == null || kind.trim().isEmpty()) {
+                setInvalidationBus(null);
+            } else if ("postgres".equals(kind.trim())) {
+                setInvalidationBus(new PostgresInvalidationBus(
+                        new ConnectionPool.ConnectionFactory() {
+                            @Override
+                            public Connection create() throws SQLException {
+                                return getConnection();
+                            }
+                        }, databaseProperties.getProperty(
+                                INVALIDATION_CHANNEL,
+                                PostgresInvalidationBus.DEFAULT_CHANNEL)));
+            } else {
+                throw new IllegalArgumentException("Unknown " + INVALIDATION
+                        + ": " + kind);
+            }
+        }
+        return invalidationBus;
+    }
+
+    /**
+     * Uses the given bus instead of the one in the properties, e.g. a
+     * LocalInvalidationBus shared by several providers in a test
+     */
+    public synchronized void setInvalidationBus(InvalidationBus bus) {
+        invalidationBusSet = true;
+        invalidationBus = bus;
+        if (bus != null) {
+            bus.addListener(new InvalidationBus.Listener() {
+                @Override
+                public void invalidated(Invalidation inv) {
+                    RecordCache records = getRecordCache();
+                    if (records != null) {
+                        records.invalidate(inv);
+                    }
+                    QueryCache queries = getQueryCache();
+                    if (queries != null) {
+                        queries.invalidate(inv);
+                    }
+                }
+
+                @Override
+                public void invalidatedAll() {
+                    RecordCache records = getRecordCache();
+                    if (records != null) {
+                        records.clear();
+                    }
+                    QueryCache queries = getQueryCache();
+                    if (queries != null) {
+                        queries.clear();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The picture cache shared by all contexts of this provider, created on
+     * first use. Null if PICTURE_CACHE is not set.
+     */
+    public synchronized PictureCache getPictureCache() {
+        String dir = databaseProperties.getProperty(PICTURE_CACHE);
+        if (pictureCache == null && dir != null && !dir.trim().isEmpty()) {
+            try {
+                pictureCache = new PictureCache(new File(dir.trim()),
+                        getIntProperty(PICTURE_CACHE_SIZE, 1024) * 1024L
+                                * 1024L);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not use " + dir
+                        + " as picture cache", e);
+            }
+        }
+        return pictureCache;
+    }
+
+    /**
+     * The record cache shared by the contexts of this provider, created on
+     * first use. Null if RECORD_CACHE is not set.
+     */
+    public synchronized RecordCache getRecordCache() {
+        if (recordCache == null) {
+            int size = getIntProperty(RECORD_CACHE, 0);
+            if (size > 0) {
+                recordCache = new RecordCache(size, getIntProperty(
+                        RECORD_CACHE_TTL, 0));
+            }
+        }
+        return recordCache;
+    }
+
+    /**
+     * The query cache shared by the contexts of this provider, created on
+     * first use. Null if QUERY_CACHE is not set.
+     */
+    public synchronized QueryCache getQueryCache() {
+        if (queryCache == null) {
+            int size = getIntProperty(QUERY_CACHE, 0);
+            if (size > 0) {
+                queryCache = new QueryCache(size, getIntProperty(
+                        QUERY_CACHE_TTL, 0));
+            }
+        }
+        return queryCache;
+    }
+
+    private int getIntProperty(String key, int def) {
+        String value = databaseProperties.getProperty(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The property " + key
+                    + " should be a number, but is " + value, e);
+        }
+    }
+
     private OutputStream getLogStream() {
         if (!databaseProperties.containsKey(LOG)) {
             Logger.out
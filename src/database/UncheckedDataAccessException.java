@@ -0,0 +1,19 @@
+package database;
+
+/**
+ * Wraps a DataAccessException where no checked exceptions can be thrown, e.g.
+ * while iterating a stream of records.
+ */
+public class UncheckedDataAccessException extends RuntimeException {
+
+    private static final long serialVersionUID = -2863384146316271245L;
+
+    public UncheckedDataAccessException(DataAccessException cause) {
+        super(cause);
+    }
+
+    @Override
+    public DataAccessException getCause() {
+        return (DataAccessException) super.getCause();
+    }
+}
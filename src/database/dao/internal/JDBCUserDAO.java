@@ -13,6 +13,7 @@ import database.dao.UserDAO;
 import database.fields.UserField;
 import database.internal.TableName;
 import database.internal.jdbc.JDBCIdDAO;
+import database.internal.type.ColumnIndex;
 import database.records.User;
 import database.tools.logging.PreparedStatement;
 
@@ -28,14 +29,27 @@ public class JDBCUserDAO extends JDBCIdDAO<User, UserField>
 
 	@Override
 	public User createWithCurrent(ResultSet rs) throws SQLException {
+		return createWithCurrent(rs, columns(rs));
+	}
+
+	@Override
+	protected User createWithCurrent(ResultSet rs, ColumnIndex c)
+			throws SQLException {
 		if (rs.next()) {
-			return new User(getInt(rs, UserField.ID),  getString(rs, UserField.NAME),
-					getString(rs, UserField.LASTNAME));
+			return new User(getInt(rs, c, UserField.ID),
+					getString(rs, c, UserField.NAME),
+					getString(rs, c, UserField.LASTNAME));
 		} else {
 			return null;
 		}
 	}
 
+	@Override
+	protected User copyRecord(User record) {
+		return new User(record.getId(), record.getName(),
+				record.getLastname());
+	}
+
 	@Override
 	protected void insertInStatement(UserField f, User item,
 			PreparedStatement ps, int i) throws SQLException,
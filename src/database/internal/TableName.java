@@ -1,7 +1,9 @@
 package database.internal;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import database.fields.UserField;
@@ -23,6 +25,19 @@ public enum TableName {
             UserField.ID) 
     ;
 
+    /**
+     * The table of each field
+     */
+    private static final Map<Field, TableName> tables = new HashMap<>();
+
+    static {
+        for (TableName table : values()) {
+            for (Field f : table.getFields()) {
+                tables.put(f, table);
+            }
+        }
+    }
+
     private String name;
     private Field[] idField;
     private Field[] fields;
@@ -124,4 +139,12 @@ public enum TableName {
         return idFieldSet;
     }
 
+    /**
+     * Gives the table the field belongs to, null if it is not a field of a
+     * table
+     */
+    public static TableName getTable(Field f) {
+        return tables.get(f);
+    }
+
 }
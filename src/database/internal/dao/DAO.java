@@ -1,10 +1,14 @@
 package database.internal.dao;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import database.DataAccessException;
 import database.internal.Field;
 import database.internal.record.Record;
+import database.tools.filter.Page;
 import database.tools.filter.SelectFilter;
 
 /**
@@ -48,7 +52,58 @@ public interface DAO<T extends Record, F extends Field> extends SimpleDAO<F>{
      * @throws DataAccessException 
      */
     T executeSingletonFilter(SelectFilter filter) throws DataAccessException;
+
+    /**
+     * Gives the records from offset to offset + limit (in the order of the
+     * filter), together with the total number of records matching the
+     * filter, with a single query. The limit should be at least 1. Keyset
+     * paged filters (see SelectFilter.setKeysetPaging) have their own pages
+     * and give an IllegalArgumentException.
+     */
+    Page<T> executePage(SelectFilter filter, int limit, int offset)
+            throws DataAccessException;
     
     List<T> getAll() throws DataAccessException;
+
+    /**
+     * Gives the records that match the filter one by one, reading them
+     * through a cursor, so only a few rows are in memory at the same time.
+     * 
+     * The stream MUST be closed (e.g. with try-with-resources), as it keeps a
+     * statement and a transaction open. When the stream started that
+     * transaction, closing it commits it: writes done while the stream is open
+     * only reach the caches (and other nodes) then. Errors while reading are
+     * thrown as UncheckedDataAccessException.
+     */
+    Stream<T> stream(SelectFilter filter) throws DataAccessException;
+
+    /**
+     * Streams the records that match the filter and have an id from 'from' to
+     * 'to' (both included), ordered on the id when ordered is true. Only for
+     * tables with a single integer id, see SelectFilter.getRangeSQL. The
+     * stream MUST be closed.
+     */
+    Stream<T> streamRange(SelectFilter filter, int from, int to,
+            boolean ordered) throws DataAccessException;
+
+    /**
+     * Passes each record that matches the filter to the consumer, reading
+     * them through a cursor. See stream.
+     */
+    void forEach(SelectFilter filter, Consumer<? super T> consumer)
+            throws DataAccessException;
+
+    /**
+     * Walks through all records of a filter that uses keyset paging (see
+     * SelectFilter.setKeysetPaging), one page per query, starting at the
+     * current key of the filter.
+     * 
+     * This changes the filter: after each page, it is moved to the next page
+     * with seekAfter, so afterwards it is at the last page read. Use a filter
+     * of its own for the iteration, or call seekAfter() to start over.
+     * 
+     * Errors while reading are thrown as UncheckedDataAccessException.
+     */
+    Iterator<List<T>> pages(SelectFilter filter);
     
 }
@@ -1,5 +1,8 @@
 package database.internal.dao;
 
+import java.util.Collection;
+import java.util.Map;
+
 import database.DataAccessException;
 import database.internal.Field;
 import database.internal.record.RecordWithSingleId;
@@ -14,6 +17,31 @@ import database.internal.record.RecordWithSingleId;
 public interface IdDAO<T extends RecordWithSingleId, F extends Field> extends DAO<T, F>{
     
     T getById(int id) throws DataAccessException;
+
+    /**
+     * Gets the records of all given ids in a single query. The map has each
+     * id once, in the order they were asked; ids that do not exist map onto
+     * null.
+     */
+    Map<Integer, T> getByIds(int[] ids) throws DataAccessException;
+
+    Map<Integer, T> getByIds(Collection<Integer> ids)
+            throws DataAccessException;
     void delete(int id) throws DataAccessException;
 
+    /**
+     * Adds all items in as few round trips as possible. The generated ids are
+     * set in the items.
+     */
+    void addAll(Collection<T> items) throws DataAccessException;
+
+    /**
+     * Updates all items, sending the updates in batches. Returns the number
+     * of updated rows for each item, in the order of the collection.
+     */
+    int[] updateAll(Collection<T> items) throws DataAccessException;
+
+    int[] updateAll(Collection<T> items, int batchSize)
+            throws DataAccessException;
+
 }
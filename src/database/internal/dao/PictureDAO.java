@@ -3,7 +3,10 @@ package database.internal.dao;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
+import java.util.Map;
 
 import database.DataAccessException;
 import database.internal.Field;
@@ -57,6 +60,44 @@ public interface PictureDAO<T extends RecordWithSingleId, F extends Field>
      */
     void getPicture(T item, File target) throws DataAccessException, FileNotFoundException, IOException;
 
+    /**
+     * Writes the picture to the channel. With a picture cache (see
+     * JDBCDataAccessContext.setPictureCache), a cached picture is sent
+     * straight from its file with FileChannel.transferTo.
+     * @throws IOException 
+     */
+    void getPicture(int id, F pictureField, WritableByteChannel target)
+            throws DataAccessException, IOException;
+
+    /**
+     * Copies length bytes of the picture, starting at byte offset, to the
+     * target, e.g. for http range requests. Gives the number of bytes copied,
+     * which is less than length when the picture ends first.
+     * @throws IOException 
+     */
+    long getPicture(int id, F pictureField, long offset, long length,
+            OutputStream target) throws DataAccessException, IOException;
+
+    /**
+     * The number of bytes of the picture
+     */
+    long getPictureSize(int id, F pictureField) throws DataAccessException;
+
+    /**
+     * The size, hash, type and upload time of the picture, without opening
+     * it. Null if there is no picture, or if it was stored before the
+     * metadata was kept.
+     */
+    PictureInfo getPictureInfo(int id, F pictureField)
+            throws DataAccessException;
+
+    /**
+     * The info of the pictures of all records of the filter, by id, in one
+     * query. Records without (known) picture are left out.
+     */
+    Map<Integer, PictureInfo> getPictureInfos(SelectFilter filter,
+            F pictureField) throws DataAccessException;
+
     /**
      * Executes the filter. Each record that got returned, it's picture will be
      * saved. All pics will be saved to parent/id_name.
@@ -0,0 +1,67 @@
+package database.internal.dao;
+
+import java.util.Date;
+
+/**
+ * What is known about a stored picture without opening its large object:
+ * written when the picture is added (see PictureDAO.getPictureInfos).
+ *
+ * @author pietervdvn
+ */
+public class PictureInfo {
+
+    private final int id;
+    private final long size;
+    private final String hash;
+    private final String mimeType;
+    private final Date uploaded;
+
+    public PictureInfo(int id, long size, String hash, String mimeType,
+            Date uploaded) {
+        this.id = id;
+        this.size = size;
+        this.hash = hash;
+        this.mimeType = mimeType;
+        this.uploaded = new Date(uploaded.getTime());
+    }
+
+    /**
+     * The id of the record the picture belongs to
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The number of bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * The SHA-256 of the bytes, in hex
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * The type, detected from the first bytes: image/jpeg, image/png, ... or
+     * application/octet-stream if unknown
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public Date getUploaded() {
+        return new Date(uploaded.getTime());
+    }
+
+    @Override
+    public String toString() {
+        return "#PictureInfo# " + id + ": " + mimeType + ", " + size
+                + " bytes, uploaded " + uploaded;
+    }
+
+}
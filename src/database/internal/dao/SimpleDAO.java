@@ -1,10 +1,15 @@
 package database.internal.dao;
 
+import java.util.List;
+
 import database.DataAccessException;
 import database.internal.Field;
 import database.internal.TableName;
 import database.tools.csv.CSV;
+import database.tools.filter.AggregateRow;
+import database.tools.filter.Aggregation;
 import database.tools.filter.DeleteFilter;
+import database.tools.filter.Row;
 import database.tools.filter.SelectFilter;
 
 /**
@@ -23,6 +28,19 @@ public interface SimpleDAO<F extends Field> {
     
     void executeFilter(DeleteFilter filter) throws DataAccessException;
     int executeCount(SelectFilter filter) throws DataAccessException;
+
+    /**
+     * Executes a filter on which select(fields) was called, and gives a row
+     * with only the selected fields for each result
+     */
+    List<Row> executeProjection(SelectFilter filter) throws DataAccessException;
+
+    /**
+     * Executes an aggregation (see SelectFilter.aggregate) in the db, and
+     * gives a row for each group
+     */
+    List<AggregateRow> executeAggregation(Aggregation aggregation)
+            throws DataAccessException;
     /**
      * Total number of records in the db
      * @return
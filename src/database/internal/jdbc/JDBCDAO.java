@@ -3,15 +3,27 @@ package database.internal.jdbc;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import database.DataAccessException;
 import database.JDBCDataAccessContext;
+import database.UncheckedDataAccessException;
 import database.internal.Field;
 import database.internal.TableName;
 import database.internal.dao.DAO;
 import database.internal.record.Record;
+import database.internal.type.ColumnIndex;
+import database.tools.cache.QueryCache;
 import database.tools.filter.AbstractFilter;
+import database.tools.filter.Page;
 import database.tools.filter.SelectFilter;
 import database.tools.logging.PreparedStatement;
 
@@ -26,6 +38,17 @@ import database.tools.logging.PreparedStatement;
 public abstract class JDBCDAO<T extends Record, F extends Field>
         extends JDBCSimpleDAO<F> implements DAO<T, F> {
 
+    /**
+     * Number of rows fetched at once by a cursor
+     */
+    public static final int FETCH_SIZE = 1000;
+
+    /**
+     * The resultset last given to columns(rs), and its columns
+     */
+    private ResultSet indexed;
+    private ColumnIndex indexedColumns;
+
     public JDBCDAO(JDBCDataAccessContext dac, TableName name) {
         super(dac, name);
     }
@@ -49,6 +72,64 @@ public abstract class JDBCDAO<T extends Record, F extends Field>
 
     protected abstract T createWithCurrent(ResultSet rs) throws SQLException;
 
+    /**
+     * Same as createWithCurrent(rs), but reads the columns by number as given
+     * by columns. All records of this DAO are created with this method, so
+     * override it to avoid looking up the column names for each row. By
+     * default, it calls createWithCurrent(rs).
+     */
+    protected T createWithCurrent(ResultSet rs, ColumnIndex columns)
+            throws SQLException {
+        return createWithCurrent(rs);
+    }
+
+    /**
+     * Gives a copy of the record, which can be kept in the record or query
+     * cache. Null (the default) when the records of this DAO should not be
+     * cached.
+     */
+    protected T copyRecord(T record) {
+        return null;
+    }
+
+    /**
+     * Called with each record that is read from the db, gives the record that
+     * should be returned instead. By default, that is the record itself.
+     */
+    protected T loaded(T record) {
+        return record;
+    }
+
+    /**
+     * Moves the resultset to the next row and creates its record, null when
+     * there are no more rows
+     */
+    protected final T readNext(ResultSet rs, ColumnIndex columns)
+            throws SQLException {
+        T record = createWithCurrent(rs, columns);
+        return record == null ? null : loaded(record);
+    }
+
+    /**
+     * The columns of the records selected by a SelectFilter of this DAO
+     */
+    protected ColumnIndex columns() {
+        return catalog().getSelectColumns();
+    }
+
+    /**
+     * The columns of the fields of this DAO in rs, looked up by name once per
+     * resultset. For createWithCurrent(rs), which gets an arbitrary resultset
+     * row by row.
+     */
+    protected ColumnIndex columns(ResultSet rs) throws SQLException {
+        if (rs != indexed) {
+            indexedColumns = ColumnIndex.of(rs, getFields());
+            indexed = rs;
+        }
+        return indexedColumns;
+    }
+
     /**
      * Insert, on position index, the value corresponding with field out of item
      * into the preparedstament
@@ -68,13 +149,347 @@ public abstract class JDBCDAO<T extends Record, F extends Field>
     @Override
     public List<T> executeFilter(SelectFilter filter)
             throws DataAccessException {
-        try (PreparedStatement ps = filter.prepStatement(connection)) {
+        return readFilter(filter, 0, 0);
+    }
+
+    /**
+     * The records of the filter, or those from offset to offset + limit when
+     * the limit is positive (see SelectFilter.getPageSQL). The filter itself
+     * is not changed.
+     */
+    private List<T> readFilter(SelectFilter filter, int limit, int offset)
+            throws DataAccessException {
+        QueryCache cache = queryCache(filter);
+        if (cache != null) {
+            return executeCachedFilter(filter, cache, limit, offset);
+        }
+        try (PreparedStatement ps = prepFilterStatement(filter, limit, offset)) {
             return createListWithCurrent(ps.executeQuery());
         } catch (SQLException e) {
             throw filter.prepException(e);
         }
     }
 
+    private PreparedStatement prepFilterStatement(SelectFilter filter,
+            int limit, int offset) throws SQLException {
+        if (limit > 0) {
+            return filter.prepPageStatement(connection, limit, offset, false);
+        }
+        return filter.prepStatement(connection);
+    }
+
+    @Override
+    public Page<T> executePage(SelectFilter filter, int limit, int offset)
+            throws DataAccessException {
+        if (limit < 1 || offset < 0) {
+            throw new IllegalArgumentException("Invalid page: limit " + limit
+                    + ", offset " + offset);
+        }
+        if (filter.getKeysetFields() != null) {
+            throw new IllegalArgumentException("Can not take an offset page"
+                    + " of a keyset paged filter, use pages or executeFilter");
+        }
+        if (!filter.canCountInPage() || queryCache(filter) != null) {
+            // both might come from the query cache
+            return new Page<>(readFilter(filter, limit, offset),
+                    executeCount(filter), limit, offset);
+        }
+        List<T> records = new ArrayList<>();
+        int total = 0;
+        try (PreparedStatement ps = filter.prepPageStatement(connection,
+                limit, offset, true)) {
+            ResultSet rs = ps.executeQuery();
+            int totalColumn = rs.getMetaData().getColumnCount();
+            ColumnIndex columns = columns();
+            T record = readNext(rs, columns);
+            while (record != null) {
+                total = rs.getInt(totalColumn);
+                records.add(record);
+                record = readNext(rs, columns);
+            }
+        } catch (SQLException e) {
+            throw filter.prepException(e);
+        }
+        if (records.isEmpty() && offset > 0) {
+            // past the last page, there is no row to carry the total
+            total = executeCount(filter);
+        }
+        return new Page<>(records, total, limit, offset);
+    }
+
+    /**
+     * Gives copies of the cached result, or executes the filter (or its page,
+     * see readFilter) and caches copies of the records. Nothing is cached
+     * when copyRecord gives null.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> executeCachedFilter(SelectFilter filter, QueryCache cache,
+            int limit, int offset) throws DataAccessException {
+        boolean page = limit > 0;
+        String sql = page ? filter.getPageSQL(false) : filter.getSQL();
+        List<Object> values = page ? filter.getPageValues(limit, offset)
+                : filter.getValues();
+        List<T> cached = (List<T>) cache.get(sql, values);
+        if (cached == null) {
+            TableName[] tables = getTables(filter);
+            long[] stamp = cache.stamp(tables);
+            List<T> read = new ArrayList<>();
+            try (PreparedStatement ps = prepFilterStatement(filter, limit,
+                    offset)) {
+                ResultSet rs = ps.executeQuery();
+                ColumnIndex columns = columns();
+                T record = createWithCurrent(rs, columns);
+                while (record != null) {
+                    read.add(record);
+                    record = createWithCurrent(rs, columns);
+                }
+            } catch (SQLException e) {
+                throw filter.prepException(e);
+            }
+            List<T> copies = copyAll(read);
+            if (copies != null) {
+                cache.put(sql, values, tables, stamp,
+                        Collections.unmodifiableList(copies));
+            }
+            cached = read;
+        } else {
+            cached = copyAll(cached);
+        }
+        List<T> result = new ArrayList<>(cached.size());
+        for (T record : cached) {
+            result.add(loaded(record));
+        }
+        return result;
+    }
+
+    private List<T> copyAll(List<T> records) {
+        List<T> copies = new ArrayList<>(records.size());
+        for (T record : records) {
+            T copy = copyRecord(record);
+            if (copy == null) {
+                return null;
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Opens a server-side cursor for the filter. Postgres only uses a cursor
+     * within a transaction, so when autocommit is on, a transaction is
+     * started (dac.begin) for the lifetime of the stream and committed
+     * (dac.commit) when it is closed. Until then the connection stays in that
+     * transaction, also when it goes back to the pool.
+     */
+    @Override
+    public Stream<T> stream(final SelectFilter filter)
+            throws DataAccessException {
+        return stream(filter, new StatementMaker() {
+            @Override
+            public PreparedStatement prepare() throws SQLException {
+                return filter.prepStatement(connection);
+            }
+        });
+    }
+
+    @Override
+    public Stream<T> streamRange(final SelectFilter filter, final int from,
+            final int to, final boolean ordered) throws DataAccessException {
+        return stream(filter, new StatementMaker() {
+            @Override
+            public PreparedStatement prepare() throws SQLException {
+                return filter.prepRangeStatement(connection, from, to, ordered);
+            }
+        });
+    }
+
+    /**
+     * Prepares the statement a stream reads from
+     */
+    private interface StatementMaker {
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    private Stream<T> stream(final SelectFilter filter, StatementMaker maker)
+            throws DataAccessException {
+        final boolean ownTransaction = !dac.isInTransaction();
+        if (ownTransaction) {
+            dac.begin();
+        }
+
+        final PreparedStatement ps;
+        final ResultSet rs;
+        try {
+            ps = maker.prepare();
+            try {
+                ps.setFetchSize(FETCH_SIZE);
+                rs = ps.executeQuery();
+            } catch (SQLException e) {
+                ps.close();
+                throw e;
+            }
+        } catch (SQLException e) {
+            DataAccessException ex = filter.prepException(e);
+            try {
+                endTransaction(ownTransaction);
+            } catch (DataAccessException e1) {
+                ex.addSuppressed(e1);
+            }
+            throw ex;
+        }
+
+        final ColumnIndex columns = columns();
+        Spliterator<T> records = new Spliterators.AbstractSpliterator<T>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                T record;
+                try {
+                    record = readNext(rs, columns);
+                } catch (SQLException e) {
+                    throw new UncheckedDataAccessException(
+                            filter.prepException(e));
+                }
+                if (record == null) {
+                    return false;
+                }
+                action.accept(record);
+                return true;
+            }
+        };
+
+        return StreamSupport.stream(records, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    try {
+                        ps.close();
+                    } finally {
+                        endTransaction(ownTransaction);
+                    }
+                } catch (SQLException e) {
+                    throw new UncheckedDataAccessException(
+                            filter.prepException(e));
+                } catch (DataAccessException e) {
+                    throw new UncheckedDataAccessException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Commits the transaction of the stream through the context, so the
+     * writes done while it was open are invalidated and published
+     */
+    private void endTransaction(boolean ownTransaction)
+            throws DataAccessException {
+        if (!ownTransaction) {
+            return;
+        }
+        try {
+            dac.commit();
+        } catch (DataAccessException e) {
+            try {
+                dac.rollback();
+            } catch (DataAccessException e1) {
+                e.addSuppressed(e1);
+            }
+            throw e;
+        } finally {
+            dac.startAutoCommit();
+        }
+    }
+
+    @Override
+    public void forEach(SelectFilter filter, Consumer<? super T> consumer)
+            throws DataAccessException {
+        try (Stream<T> records = stream(filter)) {
+            records.forEach(consumer);
+        } catch (UncheckedDataAccessException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Iterator<List<T>> pages(final SelectFilter filter) {
+        if (filter.getKeysetFields() == null) {
+            throw new IllegalArgumentException(
+                    "Iterating pages needs a filter with keyset paging");
+        }
+        return new Iterator<List<T>>() {
+
+            private List<T> next = null;
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    try {
+                        next = nextPage(filter);
+                    } catch (DataAccessException e) {
+                        throw new UncheckedDataAccessException(e);
+                    }
+                    if (next.size() < filter.getKeysetPageSize()) {
+                        done = true;
+                    }
+                    if (next.isEmpty()) {
+                        next = null;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public List<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> page = next;
+                next = null;
+                return page;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Executes a keyset paged filter, and moves the filter to the page after
+     * the returned one.
+     */
+    private List<T> nextPage(SelectFilter filter) throws DataAccessException {
+        List<Field> keyFields = filter.getKeysetFields();
+        ColumnIndex columns = columns();
+        int[] keyColumns = new int[keyFields.size()];
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyColumns[i] = columns.of(keyFields.get(i));
+        }
+        Object[] key = null;
+        List<T> page = new ArrayList<>();
+        try (PreparedStatement ps = filter.prepStatement(connection)) {
+            ResultSet rs = ps.executeQuery();
+            T record = readNext(rs, columns);
+            while (record != null) {
+                page.add(record);
+                key = new Object[keyColumns.length];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getObject(keyColumns[i]);
+                }
+                record = readNext(rs, columns);
+            }
+        } catch (SQLException e) {
+            throw filter.prepException(e);
+        }
+        if (key != null) {
+            filter.seekAfter(key);
+        }
+        return page;
+    }
+
     @Override
     public T executeSingletonFilter(SelectFilter filter)
             throws DataAccessException {
@@ -109,12 +524,16 @@ public abstract class JDBCDAO<T extends Record, F extends Field>
                 + getTableName()));
     }
 
+    /**
+     * Creates all records of a resultset with the columns of columns()
+     */
     protected List<T> createListWithCurrent(ResultSet rs) throws SQLException {
+        ColumnIndex columns = columns();
         List<T> list = new ArrayList<>();
-        T record = createWithCurrent(rs);
+        T record = readNext(rs, columns);
         while (record != null) {
             list.add(record);
-            record = createWithCurrent(rs);
+            record = readNext(rs, columns);
         }
         return list;
     }
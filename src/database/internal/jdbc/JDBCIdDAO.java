@@ -2,7 +2,12 @@ package database.internal.jdbc;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import database.DataAccessException;
 import database.JDBCDataAccessContext;
@@ -10,9 +15,10 @@ import database.internal.Field;
 import database.internal.TableName;
 import database.internal.dao.IdDAO;
 import database.internal.record.RecordWithSingleId;
+import database.internal.type.ColumnIndex;
 import database.internal.type.Types;
-import database.tools.filter.DeleteFilter;
-import database.tools.filter.SelectFilter;
+import database.tools.cache.IdentityMap;
+import database.tools.cache.RecordCache;
 import database.tools.logging.PreparedStatement;
 
 /**
@@ -27,6 +33,11 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
     // ik hou van lange klassenamen
     protected final F idField;
 
+    /**
+     * Number of updates sent to the db at once by updateAll
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
     public JDBCIdDAO(JDBCDataAccessContext dac,
             TableName name, F idField) {
         super(dac, name);
@@ -37,13 +48,6 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
         return idField;
     }
 
-    // used for auto_generated_id
-    private String[] getIdFieldAsList() {
-        String[] str = new String[1];
-        str[0] = idField.getNameColumn();
-        return str;
-    }
-
     public final String getIdColumn() {
         return idField.toString();
     }
@@ -58,15 +62,11 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
         item.checkNoId();
         item.checkRecord();
         checkConstraints(item);
-        String query = queries().getInsertQuery(true);
-        try (PreparedStatement ps = connection.prepareStatement(query,
-                getIdFieldAsList())) {
+        try (PreparedStatement ps = connection.prepareStatement(catalog()
+                .getInsertQuery(), catalog().getGeneratedKeyColumns())) {
             int i = 1;
-            for (Field f : getFields()) {
-
-                if (f != idField && f.getTypeEnum() != Types.OID) {
-                    insertInStatement((F) f, item, ps, i++);
-                }
+            for (Field f : catalog().getInsertFieldOrder()) {
+                insertInStatement((F) f, item, ps, i++);
             }
             /* \\//\\// */
             ps.execute();
@@ -78,6 +78,7 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
             } else {
                 throw new SQLException("No keyvalue in the generatedkeyset");
             }
+            dac.recordWritten(tableName, item);
             return item;
         } catch (SQLException e) {
             throw new DataAccessException("Could not insert value " + item
@@ -85,32 +86,187 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
         }
     }
 
+    /**
+     * Adds all items, with one multi-row INSERT ... RETURNING per chunk of
+     * catalog().getBatchInsertRows() items. The generated ids are set in the
+     * items.
+     * 
+     * Each chunk is a statement on its own: use begin() and commit() on the
+     * context to add all items or none.
+     */
+    @Override
+    public void addAll(Collection<T> items) throws DataAccessException {
+        for (T item : items) {
+            item.checkNoId();
+            item.checkRecord();
+            checkConstraints(item);
+        }
+        Field[] order = catalog().getInsertFieldOrder();
+        int chunk = catalog().getBatchInsertRows();
+        List<T> all = new ArrayList<>(items);
+        dac.beginWrites();
+        try {
+            addChunks(all, order, chunk);
+        } finally {
+            dac.endWrites();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addChunks(List<T> all, Field[] order, int chunk)
+            throws DataAccessException {
+        for (int start = 0; start < all.size(); start += chunk) {
+            List<T> part = all.subList(start,
+                    Math.min(start + chunk, all.size()));
+            try (PreparedStatement ps = connection.prepareStatement(catalog()
+                    .getBatchInsertQuery(part.size()))) {
+                int i = 1;
+                for (T item : part) {
+                    for (Field f : order) {
+                        insertInStatement((F) f, item, ps, i++);
+                    }
+                }
+
+                /* \\//\\// */
+                ResultSet keys = ps.executeQuery();
+                /* //\\//\\ */
+
+                // the rows of a multi-row VALUES come back in the same order
+                for (T item : part) {
+                    if (!keys.next()) {
+                        throw new SQLException("Inserted " + part.size()
+                                + " rows, but got less ids back");
+                    }
+                    item.setId(keys.getInt(1));
+                    dac.recordWritten(tableName, item);
+                }
+            } catch (SQLException e) {
+                throw new DataAccessException("Could not insert "
+                        + part.size() + " values into table " + getTableName(),
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Adds all items with addAll
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void add(T... item) throws DataAccessException {
+        addAll(Arrays.asList(item));
+    }
+
     /**
      * Generic update. Works by creating the query (done by the table) and
      * requesting to the concrete class to fill in all the fields
      */
+    @SuppressWarnings("unchecked")
     @Override
     public void update(T item) throws DataAccessException {
         item.checkId();
         item.checkRecord();
-        String query = queries().getUpdateQuery();
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
+        try (PreparedStatement ps = connection.prepareStatement(catalog()
+                .getUpdateQuery())) {
             int i = 1;
-            List<F> flds = queries().getUpdateFieldOrder(getFields());
-            for (F f : flds) {
-                insertInStatement(f, item, ps, i++);
+            for (Field f : catalog().getUpdateFieldOrder()) {
+                insertInStatement((F) f, item, ps, i++);
             }
 
             /* \\//\\// */
             ps.execute();
             /* //\\//\\ */
 
+            dac.recordWritten(tableName, item);
         } catch (SQLException e) {
             throw new DataAccessException("Could not update value " + item
                     + " in table " + getTableName(), e);
         }
     }
 
+    @Override
+    public int[] updateAll(Collection<T> items) throws DataAccessException {
+        return updateAll(items, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Updates all items with the update query of update(T), sending them as
+     * jdbc batches of batchSize updates. Returns the update count of each
+     * item, in the order of the collection: 0 means there was no record with
+     * that id. Outside of a transaction, the batches before a failed one stay
+     * written.
+     */
+    @Override
+    public int[] updateAll(Collection<T> items, int batchSize)
+            throws DataAccessException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                    "The batch size should be at least 1, not " + batchSize);
+        }
+        for (T item : items) {
+            item.checkId();
+            item.checkRecord();
+        }
+        int[] counts = new int[items.size()];
+        dac.beginWrites();
+        try {
+            updateBatches(items, batchSize, counts);
+        } finally {
+            dac.endWrites();
+        }
+        return counts;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void updateBatches(Collection<T> items, int batchSize,
+            int[] counts) throws DataAccessException {
+        int done = 0;
+        List<T> batch = new ArrayList<>(Math.min(batchSize, items.size()));
+        Field[] order = catalog().getUpdateFieldOrder();
+        try (PreparedStatement ps = connection.prepareStatement(catalog()
+                .getUpdateQuery())) {
+            for (T item : items) {
+                int i = 1;
+                for (Field f : order) {
+                    insertInStatement((F) f, item, ps, i++);
+                }
+                ps.addBatch();
+                batch.add(item);
+                if (batch.size() == batchSize) {
+                    done = executeBatch(ps, batch, counts, done);
+                }
+            }
+            if (!batch.isEmpty()) {
+                executeBatch(ps, batch, counts, done);
+            }
+        } catch (SQLException e) {
+            // the failed batch might be done in part, the earlier ones are
+            // written (and invalidated) already
+            for (T item : batch) {
+                dac.recordChanged(tableName, item.getId());
+            }
+            throw new DataAccessException("Could not update " + items.size()
+                    + " values in table " + getTableName(), e);
+        }
+    }
+
+    /**
+     * Sends the batch, copies its update counts from offset on, and keeps the
+     * caches up to date for the items that were updated. Clears the batch.
+     */
+    private int executeBatch(PreparedStatement ps, List<T> batch,
+            int[] counts, int offset) throws SQLException {
+        int[] result = ps.executeBatch();
+        System.arraycopy(result, 0, counts, offset, result.length);
+        for (int i = 0; i < batch.size(); i++) {
+            if (result[i] != 0) {
+                dac.recordWritten(tableName, batch.get(i));
+            }
+        }
+        batch.clear();
+        return offset + result.length;
+    }
+
     /**
      * Updates a single field in the db
      * 
@@ -132,6 +288,8 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
             ps.execute();
             /* //\\//\\ */
 
+            // the other fields of item might not be the ones in the db
+            dac.recordChanged(tableName, item.getId());
         } catch (SQLException e) {
             throw new DataAccessException("Could not update value " + item
                     + " in table " + getTableName(), e);
@@ -150,18 +308,163 @@ public abstract class JDBCIdDAO<T extends RecordWithSingleId, F extends Field>
         if(id < 0){
             throw new IllegalArgumentException("Trying to delete a "+getTableName()+" with id "+id);
         }
-        executeFilter(new DeleteFilter(this, getIdField(), id));
+        try (PreparedStatement ps = connection.prepareStatement(catalog()
+                .getDeleteByIdQuery())) {
+            ps.setInt(1, id);
+            ps.execute();
+            dac.recordDeleted(tableName, id);
+        } catch (SQLException e) {
+            throw new DataAccessException("Could not delete " + id
+                    + " from table " + getTableName(), e);
+        }
     }
 
-    public T getById(int id) throws DataAccessException {
+    /**
+     * Gives every record that is read as the record of the identity map of
+     * the context, if the context has one
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected T loaded(T record) {
+        IdentityMap map = dac.getIdentityMap();
+        if (map == null) {
+            return record;
+        }
+        return (T) map.canonical(tableName, record);
+    }
+
+    /**
+     * The record cache, when it can be used: outside of a transaction, the db
+     * might give other values then the cache.
+     */
+    private RecordCache recordCache() {
+        RecordCache cache = dac.getRecordCache();
+        if (cache == null || dac.isInTransaction()) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * The record with this id from the identity map of the context or else
+     * from the record cache, null if neither has it
+     */
+    @SuppressWarnings("unchecked")
+    private T getKnown(int id, RecordCache cache) {
+        IdentityMap map = dac.getIdentityMap();
+        T known = map == null ? null : (T) map.get(tableName, id);
+        if (known == null && cache != null) {
+            T cached = (T) cache.get(tableName, id);
+            if (cached != null) {
+                known = loaded(copyRecord(cached));
+            }
+        }
+        return known;
+    }
+
+    private void cache(T record, RecordCache cache, long stamp) {
+        if (cache != null) {
+            T copy = copyRecord(record);
+            if (copy != null) {
+                cache.put(tableName, copy, stamp);
+            }
+        }
+    }
+
+    private void checkId(int id) {
         if (id < 1) {
             throw new IllegalArgumentException("Trying to lookup by id from "
                     + getTableName() + ", but you passed an invalid id: " + id
                     + " (id's should be >= 1)");
         }
-        SelectFilter filter = new SelectFilter(this, idField, id);
-        filter.setErrorMessage("Trying to get by id on table " + getTableName());
-        return executeSingletonFilter(filter);
+    }
+
+    public T getById(int id) throws DataAccessException {
+        checkId(id);
+        RecordCache cache = recordCache();
+        T known = getKnown(id, cache);
+        if (known != null) {
+            return known;
+        }
+        long stamp = cache == null ? 0 : cache.stamp(tableName);
+        try (PreparedStatement ps = connection.prepareStatement(catalog()
+                .getSelectByIdQuery())) {
+            ps.setInt(1, id);
+            T record = readNext(ps.executeQuery(), columns());
+            if (record == null) {
+                throw new DataAccessException("Trying to get by id on table "
+                        + getTableName() + ": no record with id " + id, null);
+            }
+            cache(record, cache, stamp);
+            return record;
+        } catch (SQLException e) {
+            throw new DataAccessException("Trying to get by id on table "
+                    + getTableName(), e);
+        }
+    }
+
+    @Override
+    public Map<Integer, T> getByIds(int[] ids) throws DataAccessException {
+        List<Integer> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add(id);
+        }
+        return getByIds(list);
+    }
+
+    /**
+     * Gets all records with the given ids in one query, which binds all ids
+     * as a single array.
+     * 
+     * The map contains every requested id once, in the order of the request.
+     * Ids without a record are mapped onto null. Records that are in the
+     * identity map of the context or in the record cache are not queried.
+     */
+    @Override
+    public Map<Integer, T> getByIds(Collection<Integer> ids)
+            throws DataAccessException {
+        Map<Integer, T> result = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            if (id == null) {
+                throw new IllegalArgumentException(
+                        "Trying to lookup by id from " + getTableName()
+                                + ", but you passed null as id");
+            }
+            checkId(id);
+            result.put(id, null);
+        }
+
+        RecordCache cache = recordCache();
+        List<Integer> missing = new ArrayList<>(result.size());
+        for (Map.Entry<Integer, T> e : result.entrySet()) {
+            e.setValue(getKnown(e.getKey(), cache));
+            if (e.getValue() == null) {
+                missing.add(e.getKey());
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        long stamp = cache == null ? 0 : cache.stamp(tableName);
+        Integer[] array = missing.toArray(new Integer[missing.size()]);
+        try (PreparedStatement ps = connection.prepareStatement(catalog()
+                .getSelectByIdsQuery())) {
+            ps.setArray(1,
+                    connection.createArrayOf(Types.INT.getName(), array));
+            ResultSet rs = ps.executeQuery();
+            ColumnIndex columns = columns();
+            T record = readNext(rs, columns);
+            while (record != null) {
+                result.put(record.getId(), record);
+                cache(record, cache, stamp);
+                record = readNext(rs, columns);
+            }
+        } catch (SQLException e) {
+            throw new DataAccessException("Trying to get " + array.length
+                    + " ids on table " + getTableName(), e);
+        }
+        return result;
     }
 
 }
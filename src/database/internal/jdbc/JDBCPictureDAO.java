@@ -1,7 +1,6 @@
 package database.internal.jdbc;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -9,10 +8,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.postgresql.largeobject.LargeObject;
 import org.postgresql.largeobject.LargeObjectManager;
@@ -22,8 +26,9 @@ import database.JDBCDataAccessContext;
 import database.internal.Field;
 import database.internal.TableName;
 import database.internal.dao.PictureDAO;
+import database.internal.dao.PictureInfo;
 import database.internal.record.RecordWithSingleId;
-import database.tools.SQLGenerator;
+import database.tools.cache.PictureCache;
 import database.tools.filter.SelectFilter;
 import database.tools.logging.PreparedStatement;
 
@@ -34,8 +39,19 @@ import database.tools.logging.PreparedStatement;
 public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Field>
         extends JDBCIdDAO<T, F> implements PictureDAO<T, F> {
 
+    /**
+     * Size of the chunks in which pictures are copied
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
     protected final List<F> pictureFields = new ArrayList<>();
 
+    /**
+     * Reused for all copies of this DAO, which is used by one thread at a
+     * time (as its context). Created on first use.
+     */
+    private byte[] buffer;
+
     @SafeVarargs
     public JDBCPictureDAO(JDBCDataAccessContext dac,
             TableName tableName, F idField, F... pictureField) {
@@ -66,13 +82,13 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
         if (item.getId() == 0) {
             add(item);
         }
-        add(item.getId(),new SQLGenerator(tableName).getUpdateFieldQuery(pictureField), source);
+        add(item.getId(), pictureField, source);
     }
 
     public void addPicture(int id, Field pictureField, InputStream source)
             throws DataAccessException {
         try {
-            add(id, new SQLGenerator(tableName).getUpdateFieldQuery(pictureField), source);
+            add(id, pictureField, source);
         } catch (IOException e) {
             throw new DataAccessException("Could not load image", e);
         }
@@ -100,8 +116,9 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
      */
     public void getPicture(int id, Field pictureField, File target)
             throws DataAccessException, FileNotFoundException, IOException {
-        getPicture(id, pictureField, new BufferedOutputStream(
-                new FileOutputStream(target)));
+        try (OutputStream out = new FileOutputStream(target)) {
+            getPicture(id, pictureField, out);
+        }
     }
 
     /**
@@ -111,9 +128,116 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
      * 
      * @throws IOException
      */
-    public void getPicture(int id, Field pictureField, OutputStream target)
+    public void getPicture(int id, Field pictureField,
+            final OutputStream target) throws DataAccessException, IOException {
+        if (dac.getPictureCache() != null
+                && fromCache(id, pictureField, Channels.newChannel(target))) {
+            return;
+        }
+        copyPicture(id, pictureField, target);
+    }
+
+    @Override
+    public void getPicture(int id, F pictureField, WritableByteChannel target)
+            throws DataAccessException, IOException {
+        if (dac.getPictureCache() != null
+                && fromCache(id, pictureField, target)) {
+            return;
+        }
+        copyPicture(id, pictureField, Channels.newOutputStream(target));
+    }
+
+    /**
+     * Serves the picture out of the picture cache, loading it in the cache
+     * first if needed. A picture bigger than the cache is copied to the
+     * target directly, in the same read. False if there is no picture, so it
+     * should be read from the db.
+     */
+    private boolean fromCache(int id, Field pictureField,
+            final WritableByteChannel target) throws DataAccessException,
+            IOException {
+        final PictureCache cache = dac.getPictureCache();
+        final long oid = getOid(id, pictureField);
+        if (oid == 0) {
+            return false;
+        }
+        if (cache.transferTo(oid, target)) {
+            return true;
+        }
+        final boolean[] served = { false };
+        boolean loaded = cache.load(oid, new PictureCache.Loader() {
+            @Override
+            public boolean load(final OutputStream out) throws IOException,
+                    DataAccessException {
+                readObject(oid, new PictureReader() {
+                    @Override
+                    public long read(LargeObject obj) throws SQLException,
+                            IOException {
+                        if (obj.size64() > cache.getMaxBytes()) {
+                            served[0] = true;
+                            return copy(obj, Channels.newOutputStream(target),
+                                    Long.MAX_VALUE);
+                        }
+                        return copy(obj, out, Long.MAX_VALUE);
+                    }
+                });
+                return !served[0];
+            }
+        });
+        return served[0] || loaded && cache.transferTo(oid, target);
+    }
+
+    private void copyPicture(int id, Field pictureField,
+            final OutputStream target) throws DataAccessException, IOException {
+        getOne(id, getSelect(pictureField), new PictureReader() {
+            @Override
+            public long read(LargeObject obj) throws SQLException, IOException {
+                return copy(obj, target, Long.MAX_VALUE);
+            }
+        });
+    }
+
+    @Override
+    public long getPicture(int id, F pictureField, final long offset,
+            final long length, final OutputStream target)
             throws DataAccessException, IOException {
-        getOne(id, getSelect(pictureField), target);
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range: offset "
+                    + offset + ", length " + length);
+        }
+        PictureCache cache = dac.getPictureCache();
+        if (cache != null) {
+            // only served when cached, ranges do not load the whole picture
+            long oid = getOid(id, pictureField);
+            long copied = oid == 0 ? -1 : cache.transferTo(oid, offset,
+                    length, Channels.newChannel(target));
+            if (copied >= 0) {
+                return copied;
+            }
+        }
+        return getOne(id, getSelect(pictureField), new PictureReader() {
+            @Override
+            public long read(LargeObject obj) throws SQLException, IOException {
+                obj.seek64(offset, LargeObject.SEEK_SET);
+                return copy(obj, target, length);
+            }
+        });
+    }
+
+    @Override
+    public long getPictureSize(int id, F pictureField)
+            throws DataAccessException {
+        try {
+            return getOne(id, getSelect(pictureField), new PictureReader() {
+                @Override
+                public long read(LargeObject obj) throws SQLException {
+                    return obj.size64();
+                }
+            });
+        } catch (IOException e) {
+            // nothing is written
+            throw new DataAccessException("Could not get the picture size", e);
+        }
     }
 
     private String getSelect(Field pictureField) {
@@ -158,16 +282,15 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
 
     /**
      * 
-     * Adds a picture in the DB. The statement should be a statement in which
-     * two args can be filled in. The first is the picture, the second is the id
-     * of the picture/record.
+     * Adds a picture in the DB, in the picture field of the record with the
+     * given id.
      * 
      * @throws FileNotFoundException
      */
-    private void add(int id, String statement, File file)
+    private void add(int id, Field pictureField, File file)
             throws DataAccessException {
         try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
-            add(id, statement, in);
+            add(id, pictureField, in);
         } catch (IOException e) {
             throw new DataAccessException("File not found: " + file.getPath(),
                     e);
@@ -176,23 +299,34 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
 
     /**
      * 
-     * Adds a picture in the DB. The statement should be a statement in which
-     * two args can be filled in. The first is the picture, the second is the id
-     * of the picture/record.
+     * Adds a picture in the DB, in the picture field of the record with the
+     * given id, and writes its metadata (see PictureMeta). With
+     * deduplication, the large object of an equal picture is used instead if
+     * there is one, and the picture it replaces is released.
      * 
      * @throws IOException
      */
-    private void add(int id, String statement, InputStream in)
+    private void add(int id, Field pictureField, InputStream in)
             throws DataAccessException, IOException {
+        String statement = queries().getUpdateFieldQuery(pictureField);
+        boolean dedup = dac.isPictureDeduplication();
         try {
             // All LargeObject API calls must be within a transaction
             dac.begin();
 
             // Get the Large Object Manager to perform operations with
-            @SuppressWarnings("deprecation")
-            LargeObjectManager lobj = ((org.postgresql.PGConnection) connection.getConnection())
-                    .getLargeObjectAPI();
-            Long oid = readImage(lobj, in);
+            LargeObjectManager lobj = getLargeObjectAPI();
+            long old = dedup ? lockPictures(id, pictureField)[0] : 0;
+            Upload upload = readImage(lobj, in);
+            String hash = PictureBlobs.toHex(upload.digest.digest());
+            long oid = upload.oid;
+            if (dedup) {
+                long stored = PictureBlobs.acquire(connection, hash, oid);
+                if (stored != oid) {
+                    lobj.unlink(oid);
+                    oid = stored;
+                }
+            }
 
             // add to database
             try (@SuppressWarnings("deprecation")
@@ -202,6 +336,12 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
                 ps.executeUpdate();
                 connection.getLogStream().println("Image added to "+getTableName()+", record "+id+" statement "+statement);
             }
+            PictureMeta.write(connection, tableName.name(),
+                    pictureField.getNameColumn(), id, upload.size, hash,
+                    PictureMeta.detectType(upload.head, upload.headLength));
+            if (old != 0) {
+                release(lobj, old);
+            }
             dac.commit();
         } catch (SQLException | DataAccessException ex) {
             throw new DataAccessException("addPicture failed on " + statement,
@@ -213,42 +353,239 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
     }
 
     /**
-     * Reads an image from disk into the Large object manager
+     * A picture that was written to a new large object
+     */
+    private static final class Upload {
+        private long oid;
+        private long size = 0;
+        private final MessageDigest digest = PictureBlobs.createDigest();
+        /**
+         * The first bytes, to detect the type
+         */
+        private final byte[] head = new byte[PictureMeta.HEAD_SIZE];
+        private int headLength = 0;
+    }
+
+    /**
+     * Reads an image from disk into the Large object manager, hashing it on
+     * the way
      * 
      * @throws IOException
      */
-    private long readImage(LargeObjectManager lobj, InputStream in)
+    private Upload readImage(LargeObjectManager lobj, InputStream in)
             throws SQLException, DataAccessException, IOException {
+        Upload upload = new Upload();
 
         // create a new large object
-        long oid = lobj.createLO(LargeObjectManager.READ
+        upload.oid = lobj.createLO(LargeObjectManager.READ
                 | LargeObjectManager.WRITE);
 
         // open the large object for write
-        LargeObject obj = lobj.open(oid, LargeObjectManager.WRITE);
+        LargeObject obj = lobj.open(upload.oid, LargeObjectManager.WRITE);
+        try {
+            // copy the data from the file to the large object
+            byte[] buf = getBuffer();
+            int s;
+            while ((s = in.read(buf, 0, buf.length)) != -1) {
+                obj.write(buf, 0, s);
+                upload.digest.update(buf, 0, s);
+                int h = Math.min(s, upload.head.length - upload.headLength);
+                System.arraycopy(buf, 0, upload.head, upload.headLength, h);
+                upload.headLength += h;
+                upload.size += s;
+            }
+        } finally {
+            obj.close();
+        }
+        return upload;
+    }
+
+    /*------- DEDUPLICATION AND METADATA ------------*/
+
+    /**
+     * Also removes the metadata of the pictures of the record. With
+     * deduplication, the pictures of the record are released, and their large
+     * objects are unlinked when nothing refers to them anymore; this happens
+     * in a transaction, started here if there is none.
+     */
+    @Override
+    public void delete(int id) throws DataAccessException {
+        boolean dedup = dac.isPictureDeduplication();
+        boolean ownTransaction = dedup && !dac.isInTransaction();
+        boolean committed = false;
+        if (ownTransaction) {
+            dac.begin();
+        }
+        try {
+            long[] oids = dedup ? lockPictures(id,
+                    pictureFields.toArray(new Field[pictureFields.size()]))
+                    : new long[0];
+            super.delete(id);
+            PictureMeta.delete(connection, tableName.name(), id);
+            LargeObjectManager lobj = getLargeObjectAPI();
+            for (long oid : oids) {
+                if (oid != 0) {
+                    release(lobj, oid);
+                }
+            }
+            if (ownTransaction) {
+                dac.commit();
+                committed = true;
+            }
+        } catch (SQLException e) {
+            throw new DataAccessException("Could not remove the pictures of "
+                    + id + " in " + getTableName(), e);
+        } finally {
+            if (ownTransaction) {
+                if (!committed) {
+                    dac.rollback();
+                }
+                dac.startAutoCommit();
+            }
+        }
+    }
+
+    /**
+     * Gives the large objects in the fields of the record (0 if none), and
+     * locks the record until the end of the transaction
+     */
+    private long[] lockPictures(int id, Field... fields) throws SQLException {
+        String select = "";
+        for (Field f : fields) {
+            select += (select.isEmpty() ? "" : ", ") + f.getNameColumn();
+        }
+        long[] oids = new long[fields.length];
+        try (PreparedStatement ps = connection.prepareStatement("SELECT "
+                + select + " FROM " + getTableName() + " WHERE "
+                + getIdColumn() + " = ? FOR UPDATE")) {
+            ps.setInt(1, id);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                for (int i = 0; i < oids.length; i++) {
+                    oids[i] = rs.getLong(i + 1);
+                }
+            }
+        }
+        return oids;
+    }
+
+    private void release(LargeObjectManager lobj, long oid)
+            throws SQLException {
+        if (PictureBlobs.release(connection, oid)) {
+            lobj.unlink(oid);
+            PictureCache cache = dac.getPictureCache();
+            if (cache != null) {
+                cache.remove(oid);
+            }
+        }
+    }
 
-        // Now open the file
+    @Override
+    public PictureInfo getPictureInfo(int id, F pictureField)
+            throws DataAccessException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT id, size, hash, mime, uploaded FROM "
+                        + PictureMeta.TABLE
+                        + " WHERE tablename = ? AND field = ? AND id = ?")) {
+            ps.setString(1, tableName.name());
+            ps.setString(2, pictureField.getNameColumn());
+            ps.setInt(3, id);
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? createInfo(rs) : null;
+        } catch (SQLException e) {
+            throw new DataAccessException("Could not get the picture info of "
+                    + id + " in " + getTableName(), e);
+        }
+    }
 
-        // copy the data from the file to the large object
-        byte buf[] = new byte[2048];
-        @SuppressWarnings("unused")
-        int s, tl = 0;
-        while ((s = in.read(buf, 0, 2048)) > 0) {
-            obj.write(buf, 0, s);
-            tl += s;
+    @Override
+    public Map<Integer, PictureInfo> getPictureInfos(SelectFilter filter,
+            F pictureField) throws DataAccessException {
+        Map<Integer, PictureInfo> infos = new HashMap<>();
+        try (PreparedStatement ps = filter.prepSubqueryStatement(connection,
+                "SELECT id, size, hash, mime, uploaded FROM "
+                        + PictureMeta.TABLE + " WHERE id IN (", idField,
+                ") AND tablename = ? AND field = ?")) {
+            int i = filter.getValues().size();
+            ps.setString(i + 1, tableName.name());
+            ps.setString(i + 2, pictureField.getNameColumn());
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                PictureInfo info = createInfo(rs);
+                infos.put(info.getId(), info);
+            }
+        } catch (SQLException e) {
+            throw filter.prepException(e);
         }
-        return oid;
+        return infos;
+    }
+
+    private static PictureInfo createInfo(ResultSet rs) throws SQLException {
+        return new PictureInfo(rs.getInt(1), rs.getLong(2), rs.getString(3),
+                rs.getString(4), rs.getTimestamp(5));
+    }
+
+    @SuppressWarnings("deprecation")
+    private LargeObjectManager getLargeObjectAPI() throws SQLException {
+        return ((org.postgresql.PGConnection) connection.getConnection())
+                .getLargeObjectAPI();
     }
 
     /*------- READ FROM DB - WRITE TO DISK ------------*/
 
     /**
-     * Writes the image to a file. Expects a statement where only one value can
-     * be filled in: the id
+     * The large object in the picture field, 0 if none
+     */
+    private long getOid(int id, Field pictureField) throws DataAccessException {
+        String statement = getSelect(pictureField);
+        try (PreparedStatement ps = connection.prepareStatement(statement)) {
+            ps.setInt(1, id);
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new DataAccessException("getPicture failed on " + statement,
+                    e);
+        }
+    }
+
+    /**
+     * Opens the large object for reading and gives it to the reader
+     */
+    private long readObject(long oid, PictureReader reader)
+            throws DataAccessException, IOException {
+        try {
+            // All LargeObject API calls must be within a transaction
+            dac.begin();
+            LargeObject obj = getLargeObjectAPI().open(oid,
+                    LargeObjectManager.READ);
+            try {
+                return reader.read(obj);
+            } finally {
+                obj.close();
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException("Could not read large object "
+                    + oid, ex);
+        } finally {
+            dac.rollback();
+            dac.startAutoCommit();
+        }
+    }
+
+    /**
+     * Reads from an opened large object
+     */
+    private interface PictureReader {
+        long read(LargeObject obj) throws SQLException, IOException;
+    }
+
+    /**
+     * Opens the picture for reading and gives it to the reader. Expects a
+     * statement where only one value can be filled in: the id
      * 
      * @throws IOException
      */
-    private void getOne(int id, String statement, OutputStream output)
+    private long getOne(int id, String statement, PictureReader reader)
             throws DataAccessException, IOException {
 
         try {
@@ -256,16 +593,14 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
             dac.begin();
 
             // Get the Large Object Manager to perform operations with
-            @SuppressWarnings("deprecation")
-            LargeObjectManager lobj = ((org.postgresql.PGConnection) connection.getConnection())
-                    .getLargeObjectAPI();
+            LargeObjectManager lobj = getLargeObjectAPI();
             // database
             try (PreparedStatement ps = connection.prepareStatement(statement)) {
                 ps.setInt(1, id);
                 ResultSet rs = ps.executeQuery();
 
                 if (rs.next()) {
-                    writeImageTo(lobj, rs, output);
+                    return readImage(lobj, rs, reader);
                 } else {
                     throw new DataAccessException("No images found for id "
                             + id + " with the statement " + statement, null);
@@ -333,25 +668,62 @@ public abstract class JDBCPictureDAO<T extends RecordWithSingleId, F extends Fie
     }
 
     /**
-     * Writes the first object of the resultset to the given outputstream.
-     * Returns true when succesfull or false when no object has been found
+     * Writes the first object of the resultset to the given outputstream, in
+     * chunks of BUFFER_SIZE, so pictures of any size take the same memory.
+     * Throws a DataAccessException when the resultset has no object.
      */
     public void writeImageTo(LargeObjectManager lobj, ResultSet rs,
-            OutputStream target) throws SQLException, IOException,
+            final OutputStream target) throws SQLException, IOException,
+            DataAccessException {
+        readImage(lobj, rs, new PictureReader() {
+            @Override
+            public long read(LargeObject obj) throws SQLException, IOException {
+                return copy(obj, target, Long.MAX_VALUE);
+            }
+        });
+    }
+
+    private long readImage(LargeObjectManager lobj, ResultSet rs,
+            PictureReader reader) throws SQLException, IOException,
             DataAccessException {
         long oid = rs.getLong(1);
         if (oid != 0) {
             LargeObject obj = lobj.open(oid, LargeObjectManager.READ);
-
-            // read the data
-            byte buf[] = new byte[obj.size()];
-            obj.read(buf, 0, obj.size());
-
-            target.write(buf);
-            // Close the object
-            obj.close();
+            try {
+                return reader.read(obj);
+            } finally {
+                obj.close();
+            }
         } else {
             throw new DataAccessException("No image in the resultset", null);
         }
     }
+
+    /**
+     * Copies at most length bytes of the large object, from its current
+     * position. Gives the number of bytes copied, less than length at the end
+     * of the object.
+     */
+    private long copy(LargeObject obj, OutputStream target, long length)
+            throws SQLException, IOException {
+        byte[] buf = getBuffer();
+        long copied = 0;
+        while (copied < length) {
+            int s = obj.read(buf, 0,
+                    (int) Math.min(buf.length, length - copied));
+            if (s <= 0) {
+                break;
+            }
+            target.write(buf, 0, s);
+            copied += s;
+        }
+        return copied;
+    }
+
+    private byte[] getBuffer() {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        return buffer;
+    }
 }
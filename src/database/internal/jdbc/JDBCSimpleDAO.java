@@ -2,7 +2,9 @@ package database.internal.jdbc;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,9 +14,14 @@ import database.JDBCDataAccessProvider;
 import database.internal.Field;
 import database.internal.TableName;
 import database.internal.dao.SimpleDAO;
+import database.tools.SQLCatalog;
 import database.tools.SQLGenerator;
+import database.tools.cache.QueryCache;
 import database.tools.csv.CSV;
+import database.tools.filter.AggregateRow;
+import database.tools.filter.Aggregation;
 import database.tools.filter.DeleteFilter;
+import database.tools.filter.Row;
 import database.tools.filter.SelectFilter;
 import database.tools.logging.LoggingConnection;
 import database.tools.logging.PreparedStatement;
@@ -39,11 +46,15 @@ public class JDBCSimpleDAO<F extends Field> implements SimpleDAO<F> {
     protected JDBCDataAccessContext dac;
     protected final TableName tableName;
     private final Map<String, Field> fieldMap = new HashMap<>();
+    private final SQLGenerator queries;
+    private final SQLCatalog catalog;
 
     public JDBCSimpleDAO(JDBCDataAccessContext dac, TableName tableName) {
         this.connection = dac.getConnection();
         this.dac = dac;
         this.tableName = tableName;
+        this.queries = new SQLGenerator(tableName);
+        this.catalog = SQLCatalog.of(tableName);
 
         for (Field field : getFields()) {
             fieldMap.put(field.getNameColumn(), field);
@@ -66,6 +77,7 @@ public class JDBCSimpleDAO<F extends Field> implements SimpleDAO<F> {
     public void executeFilter(DeleteFilter filter) throws DataAccessException {
         try (PreparedStatement ps = filter.prepStatement(connection)) {
             ps.execute();
+            dac.tableChanged(tableName);
         } catch (SQLException e) {
             throw filter.prepException(e);
         }
@@ -73,12 +85,28 @@ public class JDBCSimpleDAO<F extends Field> implements SimpleDAO<F> {
 
     @Override
     public int executeCount(SelectFilter filter) throws DataAccessException {
+        QueryCache cache = queryCache(filter);
+        String sql = null;
+        List<Object> values = null;
+        TableName[] tables = null;
+        long[] stamp = null;
+        if (cache != null) {
+            sql = filter.getCountSQL();
+            values = filter.getCountValues();
+            Integer count = (Integer) cache.get(sql, values);
+            if (count != null) {
+                return count;
+            }
+            tables = getTables(filter);
+            stamp = cache.stamp(tables);
+        }
         try (PreparedStatement ps = filter.prepCountStatement(connection)) {
             ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1);
+            int count = rs.next() ? rs.getInt(1) : 0;
+            if (cache != null) {
+                cache.put(sql, values, tables, stamp, count);
             }
-            return 0;
+            return count;
         } catch (Exception e) {
             Exception prepped = filter.prepException(e);
             throw new DataAccessException("Could not perform count for filter",
@@ -86,14 +114,87 @@ public class JDBCSimpleDAO<F extends Field> implements SimpleDAO<F> {
         }
     }
 
+    @Override
+    public List<Row> executeProjection(SelectFilter filter)
+            throws DataAccessException {
+        List<Field> fields = filter.getProjection();
+        if (fields == null) {
+            throw new IllegalArgumentException(
+                    "executeProjection needs a filter on which select(fields) is called");
+        }
+        Map<Field, Integer> index = Row.createIndex(fields);
+        List<Row> rows = new ArrayList<>();
+        try (PreparedStatement ps = filter.prepProjectionStatement(connection)) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Object[] values = new Object[fields.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = rs.getObject(i + 1);
+                }
+                rows.add(new Row(index, values));
+            }
+        } catch (SQLException e) {
+            throw filter.prepException(e);
+        }
+        return rows;
+    }
+
+    @Override
+    public List<AggregateRow> executeAggregation(Aggregation aggregation)
+            throws DataAccessException {
+        Map<Field, Integer> index = aggregation.createIndex();
+        int columns = aggregation.getColumnCount();
+        List<AggregateRow> rows = new ArrayList<>();
+        try (PreparedStatement ps = aggregation.prepStatement(connection)) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Object[] values = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    values[i] = rs.getObject(i + 1);
+                }
+                rows.add(new AggregateRow(aggregation, index, values));
+            }
+        } catch (SQLException e) {
+            throw aggregation.prepException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * The query cache, if the filter may use it: outside of a transaction,
+     * the db might give other results then the cache
+     */
+    protected QueryCache queryCache(SelectFilter filter) {
+        QueryCache cache = dac.getQueryCache();
+        if (cache == null || !filter.isCached() || dac.isInTransaction()) {
+            return null;
+        }
+        return cache;
+    }
+
+    protected static TableName[] getTables(SelectFilter filter) {
+        Set<TableName> tables = filter.getTables();
+        return tables.toArray(new TableName[tables.size()]);
+    }
+
     @Override
     public int count() throws DataAccessException {
-        return executeCount(new SelectFilter(this));
+        try (PreparedStatement ps = connection.prepareStatement(catalog
+                .getCountQuery())) {
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+            return 0;
+        } catch (SQLException e) {
+            throw new DataAccessException("Could not count " + getTableName(),
+                    e);
+        }
     }
 
     @Override
     public boolean isEmpty() throws DataAccessException {
-        return 0 == executeCount(new SelectFilter(this));
+        return 0 == count();
     }
 
     /* GETTERS AND SETTERS */
@@ -109,7 +210,14 @@ public class JDBCSimpleDAO<F extends Field> implements SimpleDAO<F> {
     }
 
     protected SQLGenerator queries() {
-        return new SQLGenerator(getTableNameEnum());
+        return queries;
+    }
+
+    /**
+     * The precomputed queries of this table
+     */
+    protected SQLCatalog catalog() {
+        return catalog;
     }
 
     @SuppressWarnings("unchecked")
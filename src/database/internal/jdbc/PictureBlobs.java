@@ -0,0 +1,92 @@
+package database.internal.jdbc;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import database.tools.logging.LoggingConnection;
+import database.tools.logging.PreparedStatement;
+
+/**
+ * The index of deduplicated pictures: for the SHA-256 hash of each stored
+ * picture, the large object that holds it and the number of picture fields
+ * that refer to it. Used by the picture DAO's when deduplication is enabled
+ * (see JDBCDataAccessContext.setPictureDeduplication). The table (CREATE) is
+ * made by the DatabaseResetter.
+ *
+ * @author pietervdvn
+ */
+public final class PictureBlobs {
+
+    public static final String TABLE = "dao_picture_blob";
+
+    public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE
+            + " (hash text PRIMARY KEY, blob oid NOT NULL UNIQUE,"
+            + " refcount integer NOT NULL)";
+
+    private PictureBlobs() {
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every jvm has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder b = new StringBuilder(digest.length * 2);
+        for (byte d : digest) {
+            b.append(Character.forDigit((d >> 4) & 0xF, 16));
+            b.append(Character.forDigit(d & 0xF, 16));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Adds a reference to the picture with this hash. Gives the large object
+     * already stored for the hash, or oid (the object just written) if the
+     * hash is new. When another object is given, oid can be unlinked.
+     */
+    static long acquire(LoggingConnection connection, String hash, long oid)
+            throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO "
+                + TABLE + " (hash, blob, refcount) VALUES (?, ?, 1)"
+                + " ON CONFLICT (hash) DO UPDATE SET refcount = " + TABLE
+                + ".refcount + 1 RETURNING blob")) {
+            ps.setString(1, hash);
+            ps.setLong(2, oid);
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Removes a reference to the large object. True if nothing refers to it
+     * anymore, so it should be unlinked. Objects that are not in the index
+     * (stored without deduplication) are left alone.
+     */
+    static boolean release(LoggingConnection connection, long oid)
+            throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("UPDATE "
+                + TABLE + " SET refcount = refcount - 1 WHERE blob = ?"
+                + " RETURNING refcount")) {
+            ps.setLong(1, oid);
+            ResultSet rs = ps.executeQuery();
+            if (!rs.next() || rs.getInt(1) > 0) {
+                return false;
+            }
+        }
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM "
+                + TABLE + " WHERE blob = ?")) {
+            ps.setLong(1, oid);
+            ps.execute();
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,123 @@
+package database.internal.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import database.tools.logging.LoggingConnection;
+import database.tools.logging.PreparedStatement;
+
+/**
+ * The metadata of the stored pictures: for each record and picture field, the
+ * size, hash and type of the picture and when it was uploaded. Kept up to date
+ * by the picture DAO's, so listings can show them without opening the large
+ * objects. The table (CREATE) is made by the DatabaseResetter.
+ *
+ * @author pietervdvn
+ */
+public final class PictureMeta {
+
+    public static final String TABLE = "dao_picture_meta";
+
+    public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE
+            + " (tablename text NOT NULL, field text NOT NULL,"
+            + " id integer NOT NULL, size bigint NOT NULL, hash text NOT NULL,"
+            + " mime text NOT NULL, uploaded timestamp NOT NULL,"
+            + " PRIMARY KEY (tablename, field, id))";
+
+    public static final String UNKNOWN_TYPE = "application/octet-stream";
+
+    /**
+     * The number of bytes needed by detectType
+     */
+    static final int HEAD_SIZE = 16;
+
+    private PictureMeta() {
+    }
+
+    static void write(LoggingConnection connection, String table, String field,
+            int id, long size, String hash, String mime) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO "
+                + TABLE + " (tablename, field, id, size, hash, mime, uploaded)"
+                + " VALUES (?, ?, ?, ?, ?, ?, now())"
+                + " ON CONFLICT (tablename, field, id) DO UPDATE SET"
+                + " size = EXCLUDED.size, hash = EXCLUDED.hash,"
+                + " mime = EXCLUDED.mime, uploaded = EXCLUDED.uploaded")) {
+            ps.setString(1, table);
+            ps.setString(2, field);
+            ps.setInt(3, id);
+            ps.setLong(4, size);
+            ps.setString(5, hash);
+            ps.setString(6, mime);
+            ps.execute();
+        }
+    }
+
+    /**
+     * Removes the metadata of all pictures of the record
+     */
+    static void delete(LoggingConnection connection, String table, int id)
+            throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM "
+                + TABLE + " WHERE tablename = ? AND id = ?")) {
+            ps.setString(1, table);
+            ps.setInt(2, id);
+            ps.execute();
+        }
+    }
+
+    /**
+     * The MIME type of a picture, from its first bytes (at most HEAD_SIZE)
+     */
+    static String detectType(byte[] head, int length) {
+        if (startsWith(head, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A,
+                0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(head, length, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(head, length, 0, 'R', 'I', 'F', 'F')
+                && startsWith(head, length, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(head, length, 0, 'B', 'M')) {
+            return "image/bmp";
+        }
+        if (startsWith(head, length, 0, 'I', 'I', '*', 0)
+                || startsWith(head, length, 0, 'M', 'M', 0, '*')) {
+            return "image/tiff";
+        }
+        if (startsWith(head, length, 0, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(head, length, 4, 'f', 't', 'y', 'p') && length >= 12) {
+            String brand = new String(Arrays.copyOfRange(head, 8, 12),
+                    StandardCharsets.US_ASCII);
+            if (brand.startsWith("hei") || brand.equals("mif1")) {
+                return "image/heic";
+            }
+            if (brand.equals("avif")) {
+                return "image/avif";
+            }
+        }
+        return UNKNOWN_TYPE;
+    }
+
+    private static boolean startsWith(byte[] head, int length, int offset,
+            int... magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
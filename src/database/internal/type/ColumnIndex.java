@@ -0,0 +1,109 @@
+package database.internal.type;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import database.internal.Field;
+
+/**
+ * Knows in which column of a resultset each field is, so values can be read
+ * by column number instead of looking up the column name for each cell.
+ *
+ * Resolve it once per query (or once per table, see SQLCatalog), and pass it
+ * to the getters in TypeUtils for every row.
+ *
+ * @author pietervdvn
+ */
+public final class ColumnIndex {
+
+    /**
+     * The enum of the first field; the columns of its constants are kept in
+     * byOrdinal, which is a plain array lookup
+     */
+    private final Class<?> primary;
+    private final int[] byOrdinal;
+    /**
+     * Columns of fields of other tables (e.g. joins)
+     */
+    private final Map<Field, Integer> others = new HashMap<>();
+
+    private ColumnIndex(Field[] fields) {
+        Field first = fields.length == 0 ? null : fields[0];
+        if (first instanceof Enum) {
+            primary = ((Enum<?>) first).getDeclaringClass();
+            byOrdinal = new int[primary.getEnumConstants().length];
+        } else {
+            primary = null;
+            byOrdinal = new int[0];
+        }
+    }
+
+    /**
+     * Index for a query that selects exactly the given fields, in this order
+     */
+    public static ColumnIndex of(Field[] selected) {
+        ColumnIndex index = new ColumnIndex(selected);
+        for (int i = 0; i < selected.length; i++) {
+            index.put(selected[i], i + 1);
+        }
+        return index;
+    }
+
+    /**
+     * Index of the given fields in a resultset, looked up by column name.
+     * Fields that are not in the resultset are left out.
+     */
+    public static ColumnIndex of(ResultSet rs, Field[] fields)
+            throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = meta.getColumnCount(); i >= 1; i--) {
+            labels.put(meta.getColumnLabel(i).toLowerCase(), i);
+        }
+        ColumnIndex index = new ColumnIndex(fields);
+        for (Field f : fields) {
+            Integer column = labels.get(f.getNameColumn().toLowerCase());
+            if (column != null) {
+                index.put(f, column);
+            }
+        }
+        return index;
+    }
+
+    private void put(Field f, int column) {
+        if (isPrimary(f)) {
+            byOrdinal[((Enum<?>) f).ordinal()] = column;
+        } else {
+            others.put(f, column);
+        }
+    }
+
+    private boolean isPrimary(Field f) {
+        return primary != null && f instanceof Enum
+                && ((Enum<?>) f).getDeclaringClass() == primary;
+    }
+
+    /**
+     * Gives the (one-based) column of the field
+     */
+    public int of(Field f) {
+        int column = 0;
+        if (isPrimary(f)) {
+            column = byOrdinal[((Enum<?>) f).ordinal()];
+        } else {
+            Integer c = others.get(f);
+            if (c != null) {
+                column = c;
+            }
+        }
+        if (column == 0) {
+            throw new IllegalArgumentException("The field " + f
+                    + " is not in this result");
+        }
+        return column;
+    }
+
+}
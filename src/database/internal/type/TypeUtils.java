@@ -290,4 +290,46 @@ public class TypeUtils {
         return rs.getFloat(f.getNameColumn());
     }
 
+    // Getters by column number, see ColumnIndex. Use these when reading many
+    // rows, as they don't look up the column name for each value.
+
+    public static int getInt(ResultSet rs, ColumnIndex c, Field f)
+            throws SQLException {
+        checkInteger(f);
+        return rs.getInt(c.of(f));
+    }
+
+    public static boolean getBoolean(ResultSet rs, ColumnIndex c, Field f)
+            throws SQLException {
+        checkBool(f);
+        return rs.getBoolean(c.of(f));
+    }
+
+    public static Date getDate(ResultSet rs, ColumnIndex c, Field f)
+            throws SQLException {
+        switch (f.getTypeEnum()) {
+        case TIMESTAMP:
+            Timestamp ts = rs.getTimestamp(c.of(f));
+            return ts == null ? null : new Date(ts.getTime());
+        case DATE:
+            java.sql.Date d = rs.getDate(c.of(f));
+            return d == null ? null : new Date(d.getTime());
+        default:
+            throw new UnsupportedOperationException("This is not a date type");
+        }
+    }
+
+    public static String getString(ResultSet rs, ColumnIndex c, Field f)
+            throws SQLException {
+        checkString(f);
+        String s = rs.getString(c.of(f));
+        return s == null ? "" : s;
+    }
+
+    public static Float getFloat(ResultSet rs, ColumnIndex c, Field f)
+            throws SQLException {
+        checkFloat(f);
+        return rs.getFloat(c.of(f));
+    }
+
 }
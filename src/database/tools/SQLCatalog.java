@@ -0,0 +1,278 @@
+package database.tools;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import database.internal.Field;
+import database.internal.TableName;
+import database.internal.type.ColumnIndex;
+import database.internal.type.Types;
+
+/**
+ * The basic queries of a table, generated once and kept for the lifetime of
+ * the program. The write path of the DAO's uses these, so no sql gets built
+ * and no field lists get copied for each record.
+ *
+ * The field orders tell in what order the values should be bound to the
+ * queries. OID-fields are never part of these queries.
+ *
+ * @author pietervdvn
+ *
+ */
+public final class SQLCatalog {
+
+    /**
+     * Postgres allows at most this many bind parameters in one statement
+     */
+    public static final int MAX_PARAMETERS = 65535;
+    /**
+     * Maximum number of rows in one multi-row insert
+     */
+    public static final int MAX_BATCH_ROWS = 1000;
+
+    private static final Map<TableName, SQLCatalog> catalogs = createCatalogs();
+
+    private static Map<TableName, SQLCatalog> createCatalogs() {
+        Map<TableName, SQLCatalog> catalogs = new EnumMap<>(TableName.class);
+        for (TableName table : TableName.values()) {
+            catalogs.put(table, new SQLCatalog(table));
+        }
+        return catalogs;
+    }
+
+    /**
+     * Gives the catalog of the given table
+     */
+    public static SQLCatalog of(TableName table) {
+        return catalogs.get(table);
+    }
+
+    private final TableName table;
+
+    private final String insertQuery;
+    private final Field[] insertFieldOrder;
+    private final String[] generatedKeyColumns;
+
+    private final SQLGenerator gen;
+    private final int batchInsertRows;
+    private final String batchInsertQuery;
+
+    private final String updateQuery;
+    private final Field[] updateFieldOrder;
+
+    private final String deleteByIdQuery;
+    private final String selectByIdQuery;
+    private final String selectByIdsQuery;
+    private final String countQuery;
+    private final Field[] selectFields;
+    private final ColumnIndex selectColumns;
+
+    private SQLCatalog(TableName table) {
+        this.table = table;
+        this.gen = new SQLGenerator(table);
+        Field[] idFields = table.getIdFields();
+
+        this.insertQuery = gen.getInsertQuery(true);
+        List<Field> insert = new ArrayList<>();
+        List<Field> update = new ArrayList<>();
+        List<Field> select = new ArrayList<>();
+        for (Field f : table.getFields()) {
+            if (f.getTypeEnum() == Types.OID) {
+                continue;
+            }
+            select.add(f);
+            if (!table.getIdFieldSet().contains(f)) {
+                insert.add(f);
+                update.add(f);
+            }
+        }
+        this.insertFieldOrder = insert.toArray(new Field[insert.size()]);
+        this.selectFields = select.toArray(new Field[select.size()]);
+        this.selectColumns = ColumnIndex.of(selectFields);
+
+        this.generatedKeyColumns = new String[idFields.length];
+        for (int i = 0; i < idFields.length; i++) {
+            generatedKeyColumns[i] = idFields[i].getNameColumn();
+        }
+
+        this.batchInsertRows = Math.max(1, Math.min(MAX_BATCH_ROWS,
+                MAX_PARAMETERS / Math.max(1, insertFieldOrder.length)));
+        this.batchInsertQuery = createBatchInsertQuery(batchInsertRows);
+
+        if (update.isEmpty()) {
+            this.updateQuery = null;
+            this.updateFieldOrder = null;
+        } else {
+            Field[] updated = update.toArray(new Field[update.size()]);
+            this.updateQuery = gen.getUpdateFieldQuery(updated);
+            List<Field> order = gen.getUpdateFieldOrder(table.getFields());
+            this.updateFieldOrder = order.toArray(new Field[order.size()]);
+        }
+
+        String idCondition = getIdCondition(idFields);
+        this.deleteByIdQuery = "DELETE FROM " + table + " WHERE " + idCondition;
+        this.selectByIdQuery = "SELECT " + getColumnList(selectFields)
+                + " FROM " + table + " WHERE " + idCondition;
+        if (idFields.length == 1) {
+            this.selectByIdsQuery = "SELECT " + getColumnList(selectFields)
+                    + " FROM " + table + " WHERE " + idFields[0]
+                    + " = ANY(?)";
+        } else {
+            this.selectByIdsQuery = null;
+        }
+        this.countQuery = "SELECT COUNT(*) FROM " + table;
+    }
+
+    private String createBatchInsertQuery(int rows) {
+        StringBuilder builder = new StringBuilder(gen.getInsertQuery(rows,
+                true));
+        builder.append(" RETURNING ");
+        for (String column : generatedKeyColumns) {
+            builder.append(column);
+            builder.append(',');
+        }
+        builder.deleteCharAt(builder.length() - 1);
+        return builder.toString();
+    }
+
+    private static String getIdCondition(Field[] idFields) {
+        StringBuilder builder = new StringBuilder();
+        for (Field f : idFields) {
+            builder.append(f);
+            builder.append(" = ? AND ");
+        }
+        builder.setLength(builder.length() - " AND ".length());
+        return builder.toString();
+    }
+
+    private static String getColumnList(Field[] fields) {
+        StringBuilder builder = new StringBuilder();
+        for (Field f : fields) {
+            builder.append(f);
+            builder.append(", ");
+        }
+        builder.setLength(builder.length() - 2);
+        return builder.toString();
+    }
+
+    public TableName getTable() {
+        return table;
+    }
+
+    /**
+     * INSERT without the id fields, as these are generated. Bind the values in
+     * getInsertFieldOrder.
+     */
+    public String getInsertQuery() {
+        return insertQuery;
+    }
+
+    public Field[] getInsertFieldOrder() {
+        return insertFieldOrder;
+    }
+
+    /**
+     * The columns which values are generated by an insert (the id columns)
+     */
+    public String[] getGeneratedKeyColumns() {
+        return generatedKeyColumns;
+    }
+
+    /**
+     * Number of rows inserted by one multi-row insert, so that the number of
+     * bind parameters stays below MAX_PARAMETERS
+     */
+    public int getBatchInsertRows() {
+        return batchInsertRows;
+    }
+
+    /**
+     * Multi-row INSERT without the id fields, that returns the generated id
+     * columns of each row. Bind the values in getInsertFieldOrder, row after
+     * row. The query for getBatchInsertRows rows is kept, others are
+     * generated.
+     */
+    public String getBatchInsertQuery(int rows) {
+        if (rows < 1 || rows > batchInsertRows) {
+            throw new IllegalArgumentException("A batch insert into " + table
+                    + " should have between 1 and " + batchInsertRows
+                    + " rows, not " + rows);
+        }
+        if (rows == batchInsertRows) {
+            return batchInsertQuery;
+        }
+        return createBatchInsertQuery(rows);
+    }
+
+    /**
+     * UPDATE of all the fields, on the id fields. Bind the values in
+     * getUpdateFieldOrder.
+     */
+    public String getUpdateQuery() {
+        if (updateQuery == null) {
+            throw new IllegalArgumentException(
+                    "Could not generate UPDATE for table " + table
+                            + " as it only has id fields");
+        }
+        return updateQuery;
+    }
+
+    /**
+     * Order of the values in getUpdateQuery: the updated fields, followed by
+     * the id fields
+     */
+    public Field[] getUpdateFieldOrder() {
+        getUpdateQuery();
+        return updateFieldOrder;
+    }
+
+    /**
+     * DELETE on all the id fields, in the order of getIdFields
+     */
+    public String getDeleteByIdQuery() {
+        return deleteByIdQuery;
+    }
+
+    /**
+     * SELECT of the fields in getSelectFields, on all the id fields in the
+     * order of getIdFields
+     */
+    public String getSelectByIdQuery() {
+        return selectByIdQuery;
+    }
+
+    /**
+     * SELECT of the fields in getSelectFields, for all id's in a single array
+     * parameter. Only for tables with one id field.
+     */
+    public String getSelectByIdsQuery() {
+        if (selectByIdsQuery == null) {
+            throw new IllegalArgumentException(
+                    "Could not generate SELECT on an id array for table "
+                            + table + " as it has more then one id field");
+        }
+        return selectByIdsQuery;
+    }
+
+    public String getCountQuery() {
+        return countQuery;
+    }
+
+    /**
+     * All non-OID fields, in the order they are selected
+     */
+    public Field[] getSelectFields() {
+        return selectFields;
+    }
+
+    /**
+     * The columns of getSelectFields, for reading the results of the select
+     * queries here and of SelectFilter.getSQL()
+     */
+    public ColumnIndex getSelectColumns() {
+        return selectColumns;
+    }
+
+}
@@ -0,0 +1,162 @@
+package database.tools.cache;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import database.JDBCDataAccessProvider;
+import database.internal.TableName;
+import database.internal.record.RecordWithSingleId;
+
+/**
+ * The records loaded by one data access context, by table and id. While it is
+ * enabled on the context, getById does not query records that are in here, and
+ * each row is given as the same record instance.
+ *
+ * The map only knows about the writes done with the DAO's of its context: a
+ * context should be short lived (e.g. one request) when this is used. Like the
+ * context itself, it is not thread safe.
+ *
+ * @author pietervdvn
+ */
+public class IdentityMap {
+
+    private final Map<TableName, Map<Integer, RecordWithSingleId>> tables = new EnumMap<>(
+            TableName.class);
+
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * True when a write changed the map since the last commit, see rollback
+     */
+    private boolean written = false;
+
+    /**
+     * Gives the record with the given id, null if it is not loaded
+     */
+    public RecordWithSingleId get(TableName table, int id) {
+        Map<Integer, RecordWithSingleId> records = tables.get(table);
+        RecordWithSingleId record = records == null ? null : records.get(id);
+        if (record == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return record;
+    }
+
+    /**
+     * Gives the record that is already known for the id of this record. If
+     * there is none, the given record is added and returned.
+     */
+    public RecordWithSingleId canonical(TableName table,
+            RecordWithSingleId record) {
+        Map<Integer, RecordWithSingleId> records = getTable(table);
+        RecordWithSingleId known = records.get(record.getId());
+        if (known != null) {
+            return known;
+        }
+        records.put(record.getId(), record);
+        return record;
+    }
+
+    /**
+     * Adds or replaces the record, e.g. after it was updated
+     */
+    public void put(TableName table, RecordWithSingleId record) {
+        getTable(table).put(record.getId(), record);
+        written = true;
+    }
+
+    public void remove(TableName table, int id) {
+        written = true;
+        Map<Integer, RecordWithSingleId> records = tables.get(table);
+        if (records != null) {
+            records.remove(id);
+        }
+    }
+
+    /**
+     * Forgets a deleted record, and all records of tables that reference its
+     * table, as deleting it might cascade to those
+     */
+    public void delete(TableName table, int id) {
+        remove(table, id);
+        Set<TableName> done = EnumSet.of(table);
+        for (TableName dep : JDBCDataAccessProvider.getDepsFor(table)) {
+            removeTable(dep, done);
+        }
+    }
+
+    /**
+     * Forgets all records of the table and of the tables that reference it
+     * (directly or not), as a delete might cascade to those
+     */
+    public void removeTable(TableName table) {
+        written = true;
+        removeTable(table, EnumSet.noneOf(TableName.class));
+    }
+
+    private void removeTable(TableName table, Set<TableName> done) {
+        if (!done.add(table)) {
+            return;
+        }
+        tables.remove(table);
+        for (TableName dep : JDBCDataAccessProvider.getDepsFor(table)) {
+            removeTable(dep, done);
+        }
+    }
+
+    public void clear() {
+        tables.clear();
+        written = false;
+    }
+
+    /**
+     * The writes so far are committed (or done outside of a transaction), a
+     * rollback keeps the records
+     */
+    public void committed() {
+        written = false;
+    }
+
+    /**
+     * Forgets all records when writes were done since the last commit, as the
+     * records read after them might hold values that are undone now. A
+     * rollback of a transaction that only read keeps the records.
+     */
+    public void rolledBack() {
+        if (written) {
+            clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Integer, RecordWithSingleId> records : tables.values()) {
+            size += records.size();
+        }
+        return size;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    private Map<Integer, RecordWithSingleId> getTable(TableName table) {
+        Map<Integer, RecordWithSingleId> records = tables.get(table);
+        if (records == null) {
+            records = new HashMap<>();
+            tables.put(table, records);
+        }
+        return records;
+    }
+
+}
@@ -0,0 +1,79 @@
+package database.tools.cache;
+
+import database.internal.TableName;
+
+/**
+ * Tells a cache which records changed: a single record, a deleted record
+ * (which might cascade to the tables referencing it) or a whole table.
+ *
+ * @author pietervdvn
+ */
+public final class Invalidation {
+
+    /**
+     * Id of an invalidation of the whole table
+     */
+    public static final int ALL = -1;
+
+    private final TableName table;
+    private final int id;
+    private final boolean cascade;
+
+    private Invalidation(TableName table, int id, boolean cascade) {
+        this.table = table;
+        this.id = id;
+        this.cascade = cascade;
+    }
+
+    /**
+     * The record with this id was added or updated
+     */
+    public static Invalidation changed(TableName table, int id) {
+        return new Invalidation(table, id, false);
+    }
+
+    /**
+     * The record with this id was deleted, together with the records
+     * referencing it
+     */
+    public static Invalidation deleted(TableName table, int id) {
+        return new Invalidation(table, id, true);
+    }
+
+    /**
+     * Any record of the table might be changed or deleted, together with the
+     * records referencing them
+     */
+    public static Invalidation table(TableName table) {
+        return new Invalidation(table, ALL, true);
+    }
+
+    public TableName getTable() {
+        return table;
+    }
+
+    /**
+     * The id of the changed record, ALL if the whole table changed
+     */
+    public int getId() {
+        return id;
+    }
+
+    public boolean isWholeTable() {
+        return id == ALL;
+    }
+
+    /**
+     * True if the tables referencing this one are changed too
+     */
+    public boolean isCascading() {
+        return cascade;
+    }
+
+    @Override
+    public String toString() {
+        return (cascade ? "delete " : "change ") + table
+                + (isWholeTable() ? "" : " " + id);
+    }
+
+}
@@ -0,0 +1,47 @@
+package database.tools.cache;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import database.tools.logging.LoggingConnection;
+
+/**
+ * Tells other programs (nodes) using the same db which records were written,
+ * so they can drop them from their caches.
+ *
+ * @author pietervdvn
+ */
+public interface InvalidationBus {
+
+    /**
+     * Gets the invalidations published by other nodes
+     */
+    interface Listener {
+
+        void invalidated(Invalidation inv);
+
+        /**
+         * Some invalidations might be lost (e.g. the bus reconnected), so
+         * everything should be dropped
+         */
+        void invalidatedAll();
+    }
+
+    /**
+     * Publishes the invalidations, with the connection that did the writes.
+     * When that connection is in a transaction, the invalidations might only
+     * be delivered when it commits.
+     */
+    void publish(LoggingConnection connection, List<Invalidation> invs)
+            throws SQLException;
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+
+    /**
+     * Stops delivering invalidations
+     */
+    void close();
+
+}
@@ -0,0 +1,48 @@
+package database.tools.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import database.tools.logging.LoggingConnection;
+
+/**
+ * Invalidation bus within one program, e.g. for tests with several providers
+ * on one db. Invalidations are delivered right away to all listeners, also
+ * when published in a transaction.
+ *
+ * @author pietervdvn
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+
+    @Override
+    public void publish(LoggingConnection connection, List<Invalidation> invs) {
+        if (closed) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            for (Invalidation inv : invs) {
+                listener.invalidated(inv);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        listeners.clear();
+    }
+
+}
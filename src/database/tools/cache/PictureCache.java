@@ -0,0 +1,281 @@
+package database.tools.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import database.DataAccessException;
+import database.tools.logging.Logger;
+
+/**
+ * Pictures (large objects) on the local disk, by oid, shared by all contexts
+ * of a provider. A new picture always gets a new large object, so a cached
+ * picture never gets outdated; the picture DAO's remove the objects they
+ * unlink. Use a directory per database.
+ *
+ * The files take at most maxBytes together, the least recently used ones are
+ * deleted when more room is needed. A picture is written to a temporary file
+ * first and moved in place when complete, so no half pictures are served,
+ * also not after a crash. Files are served with FileChannel.transferTo.
+ *
+ * All methods are thread safe.
+ *
+ * @author pietervdvn
+ */
+public class PictureCache {
+
+    /**
+     * Writes a picture that is not in the cache yet. Gives false, without
+     * writing, when the picture should not be cached, e.g. as it is bigger
+     * than getMaxBytes.
+     */
+    public interface Loader {
+        boolean load(OutputStream out) throws IOException, DataAccessException;
+    }
+
+    private static final String SUFFIX = ".pic";
+
+    private final Path dir;
+    private final long maxBytes;
+
+    /**
+     * Size of the file of each oid, least recently used first
+     */
+    private final Map<Long, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Uses the pictures already in dir (from a previous run), and removes
+     * temporary files that were never completed
+     *
+     * @param maxBytes
+     *            : the maximum size of all pictures together
+     */
+    public PictureCache(File dir, long maxBytes) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException(
+                    "A picture cache should hold at least 1 byte, not "
+                            + maxBytes);
+        }
+        this.dir = dir.toPath();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.dir);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Can not list " + dir);
+        }
+        // oldest first, as the least recently used
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : files) {
+            String name = f.getName();
+            Long oid = name.endsWith(SUFFIX) ? parseOid(name) : null;
+            if (oid == null) {
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(f.toPath());
+                }
+                continue;
+            }
+            sizes.put(oid, f.length());
+            bytes += f.length();
+        }
+        synchronized (this) {
+            evict(0);
+        }
+    }
+
+    /**
+     * Copies the picture to the target, if it is cached. False if not.
+     */
+    public boolean transferTo(long oid, WritableByteChannel target)
+            throws IOException {
+        return transferTo(oid, 0, Long.MAX_VALUE, target) >= 0;
+    }
+
+    /**
+     * Copies at most length bytes of the picture, starting at offset, to the
+     * target, if the picture is cached. Gives the number of bytes copied, -1
+     * if the picture is not cached.
+     */
+    public long transferTo(long oid, long offset, long length,
+            WritableByteChannel target) throws IOException {
+        if (!isCached(oid)) {
+            return -1;
+        }
+        FileChannel file;
+        try {
+            file = FileChannel.open(getPath(oid), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // evicted in the mean time
+            remove(oid);
+            return -1;
+        }
+        try {
+            long end = Math.min(file.size(), offset + Math.min(length,
+                    Long.MAX_VALUE - offset));
+            long position = offset;
+            while (position < end) {
+                long n = file.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+            return Math.max(0, position - offset);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Loads the picture in the cache, unless it is there already. False if
+     * the loader did not write it or the picture is bigger than the cache, it
+     * is not kept then.
+     */
+    public boolean load(long oid, Loader loader) throws IOException,
+            DataAccessException {
+        if (contains(oid)) {
+            return true;
+        }
+        Path temp = Files.createTempFile(dir, oid + "-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                if (!loader.load(out)) {
+                    return false;
+                }
+            }
+            long size = Files.size(temp);
+            if (size > maxBytes) {
+                return false;
+            }
+            synchronized (this) {
+                evict(size);
+                Files.move(temp, getPath(oid),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Long old = sizes.put(oid, size);
+                bytes += size - (old == null ? 0 : old);
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Removes the picture, e.g. as its large object was unlinked
+     */
+    public synchronized void remove(long oid) {
+        Long size = sizes.remove(oid);
+        if (size != null) {
+            bytes -= size;
+            delete(oid);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Long oid : sizes.keySet()) {
+            delete(oid);
+        }
+        sizes.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return sizes.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private synchronized boolean contains(long oid) {
+        return sizes.containsKey(oid);
+    }
+
+    private synchronized boolean isCached(long oid) {
+        // get marks it as recently used
+        if (sizes.get(oid) != null) {
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Deletes the least recently used pictures until there is room for extra
+     * bytes
+     */
+    private void evict(long extra) {
+        Iterator<Map.Entry<Long, Long>> it = sizes.entrySet().iterator();
+        while (bytes + extra > maxBytes && it.hasNext()) {
+            Map.Entry<Long, Long> e = it.next();
+            bytes -= e.getValue();
+            it.remove();
+            delete(e.getKey());
+            evictions++;
+        }
+    }
+
+    /**
+     * Readers that still have the file open can finish (on unix)
+     */
+    private void delete(long oid) {
+        try {
+            Files.deleteIfExists(getPath(oid));
+        } catch (IOException e) {
+            Logger.err.println("Could not delete cached picture " + oid + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private Path getPath(long oid) {
+        return dir.resolve(oid + SUFFIX);
+    }
+
+    private static Long parseOid(String name) {
+        try {
+            return Long.parseLong(name.substring(0,
+                    name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
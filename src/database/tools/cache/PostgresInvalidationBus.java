@@ -0,0 +1,251 @@
+package database.tools.cache;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import database.internal.TableName;
+import database.tools.logging.Logger;
+import database.tools.logging.LoggingConnection;
+import database.tools.logging.PreparedStatement;
+import database.tools.pool.ConnectionPool.ConnectionFactory;
+
+/**
+ * Invalidation bus over postgres' LISTEN/NOTIFY. Invalidations are sent with
+ * pg_notify on the connection that did the writes, so postgres only delivers
+ * them when the transaction commits, and never when it rolls back.
+ *
+ * A daemon thread listens on a connection of its own, and gives the
+ * invalidations of the other nodes to the listeners. When that connection
+ * breaks, it reconnects and tells the listeners to drop everything, as
+ * notifications might be lost in between.
+ *
+ * The payload of a notification is "node|kind|table|id", with kind C for a
+ * changed record, D for a deleted record and T for a whole table.
+ *
+ * @author pietervdvn
+ */
+public class PostgresInvalidationBus implements InvalidationBus {
+
+    public static final String DEFAULT_CHANNEL = "dao_invalidation";
+
+    /**
+     * Milliseconds to wait for notifications, before checking if the bus was
+     * closed
+     */
+    private static final int POLL_TIMEOUT = 1000;
+    /**
+     * Milliseconds to wait before reconnecting
+     */
+    private static final long RETRY_DELAY = 5000;
+
+    private final ConnectionFactory factory;
+    private final String channel;
+    /**
+     * Identifies this bus, so it ignores its own notifications
+     */
+    private final String node = UUID.randomUUID().toString();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Connection listening;
+
+    /**
+     * Starts listening on a connection from the factory
+     *
+     * @param channel
+     *            : the name of the notification channel, the same for all
+     *            nodes
+     */
+    public PostgresInvalidationBus(ConnectionFactory factory, String channel) {
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid channel name "
+                    + channel);
+        }
+        this.factory = factory;
+        this.channel = channel;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listen();
+            }
+        }, "invalidation listener " + channel);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void publish(LoggingConnection connection, List<Invalidation> invs)
+            throws SQLException {
+        if (invs.isEmpty()) {
+            return;
+        }
+        // postgres drops duplicates within a transaction anyway
+        Set<String> payloads = new LinkedHashSet<>();
+        for (Invalidation inv : invs) {
+            payloads.add(toPayload(inv));
+        }
+        if (payloads.size() == 1) {
+            try (PreparedStatement ps = connection
+                    .prepareStatement("SELECT pg_notify(?, ?)")) {
+                ps.setString(1, channel);
+                ps.setString(2, payloads.iterator().next());
+                ps.execute();
+            }
+            return;
+        }
+        try (PreparedStatement ps = connection
+                .prepareStatement("SELECT pg_notify(?, p) FROM unnest(?) AS p")) {
+            ps.setString(1, channel);
+            ps.setArray(2, connection.createArrayOf("text",
+                    payloads.toArray(new String[payloads.size()])));
+            ps.execute();
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        closeQuietly(listening);
+    }
+
+    private void listen() {
+        boolean reconnect = false;
+        while (running) {
+            try {
+                if (listening == null) {
+                    listening = connect();
+                    if (reconnect) {
+                        for (Listener listener : listeners) {
+                            listener.invalidatedAll();
+                        }
+                    }
+                    reconnect = true;
+                }
+                PGNotification[] notifications = listening.unwrap(
+                        PGConnection.class).getNotifications(POLL_TIMEOUT);
+                if (notifications != null) {
+                    for (PGNotification n : notifications) {
+                        deliver(n.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                Logger.err.println("Invalidation listener lost its connection: "
+                        + e.getMessage());
+                closeQuietly(listening);
+                listening = null;
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException e1) {
+                    break;
+                }
+            }
+        }
+        closeQuietly(listening);
+        listening = null;
+    }
+
+    private Connection connect() throws SQLException {
+        Connection c = factory.create();
+        try (Statement s = c.createStatement()) {
+            if (!c.getAutoCommit()) {
+                c.setAutoCommit(true);
+            }
+            s.execute("LISTEN " + channel);
+        } catch (SQLException e) {
+            closeQuietly(c);
+            throw e;
+        }
+        return c;
+    }
+
+    private void deliver(String payload) {
+        Invalidation inv;
+        try {
+            inv = fromPayload(payload);
+        } catch (IllegalArgumentException e) {
+            Logger.err.println("Ignoring invalidation '" + payload + "': "
+                    + e.getMessage());
+            return;
+        }
+        if (inv == null) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.invalidated(inv);
+        }
+    }
+
+    private String toPayload(Invalidation inv) {
+        String kind = inv.isWholeTable() ? "T" : inv.isCascading() ? "D"
+                : "C";
+        return node + "|" + kind + "|" + inv.getTable().name() + "|"
+                + inv.getId();
+    }
+
+    /**
+     * Null for notifications of this node
+     */
+    private Invalidation fromPayload(String payload) {
+        String[] parts = payload.split("\\|");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("expected 4 parts");
+        }
+        if (node.equals(parts[0])) {
+            return null;
+        }
+        TableName table = TableName.valueOf(parts[2]);
+        int id;
+        try {
+            id = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid id " + parts[3]);
+        }
+        switch (parts[1]) {
+        case "C":
+            return Invalidation.changed(table, id);
+        case "D":
+            return Invalidation.deleted(table, id);
+        case "T":
+            return Invalidation.table(table);
+        default:
+            throw new IllegalArgumentException("unknown kind " + parts[1]);
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (SQLException e) {
+            Logger.err.println("Could not close invalidation connection: "
+                    + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package database.tools.cache;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import database.JDBCDataAccessProvider;
+import database.internal.TableName;
+
+/**
+ * Results of filters, by sql and values, shared by all contexts of a
+ * provider. Only filters with setCached(true) are cached.
+ *
+ * Each table has a version, that is counted up for every write to it. A
+ * result remembers the versions of the tables it was read from, and is
+ * outdated as soon as one of those changed. Like the RecordCache, it holds at
+ * most maxEntries results, drops the least recently used one when full, and
+ * all methods are thread safe.
+ *
+ * @author pietervdvn
+ */
+public class QueryCache {
+
+    private final int maxEntries;
+    private final long ttl;
+
+    private final Map<Key, CacheEntry> entries;
+    private final long[] versions = new long[TableName.values().length];
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxEntries
+     *            : maximum number of results kept
+     * @param ttl
+     *            : milliseconds a result stays valid, 0 for no limit
+     */
+    public QueryCache(int maxEntries, long ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "A query cache should hold at least 1 result, not "
+                            + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, CacheEntry> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gives the cached result of the query, null if there is none (anymore).
+     * Do not modify or hand out the result itself.
+     */
+    public synchronized Object get(String sql, List<Object> values) {
+        Key key = new Key(sql, values);
+        CacheEntry entry = entries.get(key);
+        if (entry != null && !isValid(entry)) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * Gives the current versions of the tables, to pass to put: take it
+     * before executing the query
+     */
+    public synchronized long[] stamp(TableName[] tables) {
+        long[] stamp = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            stamp[i] = versions[tables[i].ordinal()];
+        }
+        return stamp;
+    }
+
+    /**
+     * Caches the result of a query that read the given tables. When one of
+     * the tables changed since the stamp was taken, it won't be given.
+     */
+    public synchronized void put(String sql, List<Object> values,
+            TableName[] tables, long[] stamp, Object result) {
+        long expires = ttl > 0 ? System.currentTimeMillis() + ttl
+                : Long.MAX_VALUE;
+        entries.put(new Key(sql, values), new CacheEntry(result, tables, stamp,
+                expires));
+    }
+
+    /**
+     * Outdates all results that read the table. Cascading invalidations
+     * outdate the tables that (directly or not) reference it too.
+     */
+    public synchronized void invalidate(Invalidation inv) {
+        if (inv.isCascading()) {
+            invalidateTable(inv.getTable(), EnumSet.noneOf(TableName.class));
+        } else {
+            versions[inv.getTable().ordinal()]++;
+        }
+    }
+
+    private void invalidateTable(TableName table, Set<TableName> done) {
+        if (!done.add(table)) {
+            return;
+        }
+        versions[table.ordinal()]++;
+        for (TableName dep : JDBCDataAccessProvider.getDepsFor(table)) {
+            invalidateTable(dep, done);
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < versions.length; i++) {
+            versions[i]++;
+        }
+        entries.clear();
+    }
+
+    private boolean isValid(CacheEntry entry) {
+        for (int i = 0; i < entry.tables.length; i++) {
+            if (versions[entry.tables[i].ordinal()] != entry.stamp[i]) {
+                return false;
+            }
+        }
+        return entry.expires > System.currentTimeMillis();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Number of results dropped because the cache was full, or because they
+     * were outdated
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static final class Key {
+
+        private final String sql;
+        private final List<Object> values;
+        private final int hash;
+
+        private Key(String sql, List<Object> values) {
+            this.sql = sql;
+            this.values = new ArrayList<>(values);
+            this.hash = sql.hashCode() * 31 + this.values.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && sql.equals(other.sql)
+                    && values.equals(other.values);
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final Object result;
+        private final TableName[] tables;
+        private final long[] stamp;
+        private final long expires;
+
+        private CacheEntry(Object result, TableName[] tables, long[] stamp,
+                long expires) {
+            this.result = result;
+            this.tables = tables;
+            this.stamp = stamp;
+            this.expires = expires;
+        }
+    }
+
+}
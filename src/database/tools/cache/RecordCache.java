@@ -0,0 +1,225 @@
+package database.tools.cache;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import database.JDBCDataAccessProvider;
+import database.internal.TableName;
+import database.internal.record.RecordWithSingleId;
+
+/**
+ * Records by table and id, shared by all contexts of a provider. The cache
+ * holds at most maxEntries records, and drops the least recently used one
+ * when it is full. Records older then the ttl are not given anymore.
+ *
+ * Records are mutable, so the DAO's put copies in here and hand out copies of
+ * what they get. All methods are thread safe.
+ *
+ * @author pietervdvn
+ */
+public class RecordCache {
+
+    private final int maxEntries;
+    private final long ttl;
+
+    private final Map<Key, CacheEntry> entries;
+    /**
+     * Entries of a table are valid as long as the generation of the table did
+     * not change. Invalidating a table is just a matter of counting up.
+     */
+    private final long[] generations = new long[TableName.values().length];
+    /**
+     * Number of invalidations of each table so far, of single records as well
+     */
+    private final long[] invalidations = new long[TableName.values().length];
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxEntries
+     *            : maximum number of records kept
+     * @param ttl
+     *            : milliseconds a record stays valid, 0 for no limit
+     */
+    public RecordCache(int maxEntries, long ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "A record cache should hold at least 1 record, not "
+                            + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, CacheEntry> eldest) {
+                if (size() > RecordCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gives the cached record, null if it is not cached (anymore). Do not
+     * modify or hand out the record itself.
+     */
+    public synchronized RecordWithSingleId get(TableName table, int id) {
+        Key key = new Key(table, id);
+        CacheEntry entry = entries.get(key);
+        if (entry != null && !isValid(entry)) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.record;
+    }
+
+    /**
+     * Gives the stamp to pass to put: take it before reading records of the
+     * table from the db
+     */
+    public synchronized long stamp(TableName table) {
+        return invalidations[table.ordinal()];
+    }
+
+    /**
+     * Caches a copy of a record that was read from the db. It is dropped when
+     * anything of its table got invalidated since the stamp was taken, as the
+     * record might be outdated then. Writes to other tables do not matter.
+     */
+    public synchronized void put(TableName table, RecordWithSingleId copy,
+            long stamp) {
+        int t = table.ordinal();
+        if (stamp != invalidations[t]) {
+            return;
+        }
+        long expires = ttl > 0 ? System.currentTimeMillis() + ttl
+                : Long.MAX_VALUE;
+        entries.put(new Key(table, copy.getId()), new CacheEntry(copy, t,
+                generations[t], expires));
+    }
+
+    /**
+     * Drops the records that are changed. Cascading invalidations drop all
+     * records of the tables that (directly or not) reference the table.
+     */
+    public synchronized void invalidate(Invalidation inv) {
+        TableName table = inv.getTable();
+        invalidations[table.ordinal()]++;
+        if (inv.isWholeTable()) {
+            generations[table.ordinal()]++;
+        } else {
+            entries.remove(new Key(table, inv.getId()));
+        }
+        if (inv.isCascading()) {
+            Set<TableName> done = EnumSet.of(table);
+            for (TableName dep : JDBCDataAccessProvider.getDepsFor(table)) {
+                invalidateTable(dep, done);
+            }
+        }
+    }
+
+    private void invalidateTable(TableName table, Set<TableName> done) {
+        if (!done.add(table)) {
+            return;
+        }
+        generations[table.ordinal()]++;
+        invalidations[table.ordinal()]++;
+        for (TableName dep : JDBCDataAccessProvider.getDepsFor(table)) {
+            invalidateTable(dep, done);
+        }
+    }
+
+    public synchronized void clear() {
+        for (int t = 0; t < invalidations.length; t++) {
+            invalidations[t]++;
+        }
+        entries.clear();
+    }
+
+    private boolean isValid(CacheEntry entry) {
+        return entry.generation == generations[entry.table]
+                && entry.expires > System.currentTimeMillis();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Number of records dropped because the cache was full, or because they
+     * were outdated
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static final class Key {
+
+        private final TableName table;
+        private final int id;
+
+        private Key(TableName table, int id) {
+            this.table = table;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return table.hashCode() * 31 + id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return table == other.table && id == other.id;
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final RecordWithSingleId record;
+        private final int table;
+        private final long generation;
+        private final long expires;
+
+        private CacheEntry(RecordWithSingleId record, int table,
+                long generation, long expires) {
+            this.record = record;
+            this.table = table;
+            this.generation = generation;
+            this.expires = expires;
+        }
+    }
+
+}
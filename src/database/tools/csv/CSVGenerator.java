@@ -12,6 +12,7 @@ import database.DataAccessException;
 import database.internal.Field;
 import database.internal.jdbc.JDBCSimpleDAO;
 import database.internal.type.Types;
+import database.tools.SQLCatalog;
 import database.tools.filter.SelectFilter;
 import database.tools.logging.LoggingConnection;
 import database.tools.logging.PreparedStatement;
@@ -28,10 +29,15 @@ class CSVGenerator {
     
     protected final JDBCSimpleDAO<?> dao;
     protected final LoggingConnection con;
+    /**
+     * The columns of a line, in order
+     */
+    private final Field[] selected;
 
     public CSVGenerator(JDBCSimpleDAO<?> dao) {
         this.dao = dao;
         this.con = dao.getDac().getConnection();
+        this.selected = SQLCatalog.of(dao.getTableNameEnum()).getSelectFields();
     }
 
     /**
@@ -116,7 +122,8 @@ class CSVGenerator {
 
     /**
      * Creates a stringbuilder with the current line of the resultset. Does not
-     * call resultset.next()
+     * call resultset.next(). The columns are read by number, so the resultset
+     * should have the columns of SelectFilter.getSQL()
      * 
      * @throws SQLException
      *             when the resultset feels like throwing one
@@ -124,13 +131,10 @@ class CSVGenerator {
     public StringBuilder generateLine(ResultSet set) throws SQLException {
         StringBuilder builder = new StringBuilder();
 
-        Field[] columns = dao.getFields();
-        for (Field f : columns) {
-            if (!f.getTypeEnum().equals(Types.OID)) {
-                String colname = f.getNameColumn();
-                builder.append(escape(set.getString(colname)));
-                builder.append(',');
-            }
+        int columns = selected.length;
+        for (int i = 1; i <= columns; i++) {
+            builder.append(escape(set.getString(i)));
+            builder.append(',');
         }
         builder.deleteCharAt(builder.length() - 1);
 
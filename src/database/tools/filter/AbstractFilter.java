@@ -23,9 +23,12 @@ public abstract class AbstractFilter extends AbstractFilter4WhereAdd{
     protected List<Field> distinct = new ArrayList<>();
     
     /**
-     * Something of the form "PAGING x OFFSET y", with x, y are numbers.
+     * "LIMIT ? OFFSET ?" when paging is used, with pagingLimit and
+     * pagingOffset as values
      */
     protected String paging = null;
+    protected int pagingLimit;
+    protected int pagingOffset;
     /**
      * Something of the form "ORDER BY x", with x a columnName.
      */
@@ -54,6 +57,7 @@ public abstract class AbstractFilter extends AbstractFilter4WhereAdd{
         // check if fields are in a table
         checkFieldInTable(f);
         distinct.add(f);
+        addStructure(Part.DISTINCT, f);
         return this;
     }
 
@@ -64,11 +68,20 @@ public abstract class AbstractFilter extends AbstractFilter4WhereAdd{
      * the ones in the resultset on row 20,21,22,...29
      */
     public AbstractFilter setPaging(int limit, int offset) {
-        paging = "LIMIT " + Integer.toString(limit) + " OFFSET "
-                + Integer.toString(offset);
+        paging = "LIMIT ? OFFSET ?";
+        pagingLimit = limit;
+        pagingOffset = offset;
         return this;
     }
 
+    @Override
+    protected List<Object> getShape() {
+        List<Object> shape = super.getShape();
+        shape.add(orderBy);
+        shape.add(paging);
+        return shape;
+    }
+
     /**
      * Sets the order of the returned list of the filter.
      */
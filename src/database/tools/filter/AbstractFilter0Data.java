@@ -34,6 +34,25 @@ abstract class AbstractFilter0Data {
      */
     protected String errorMessage = null;
 
+    /**
+     * The kinds of parts of the structure of a filter
+     */
+    protected enum Part {
+        COMPARE, ANY, NOT_ANY, WEEKDAY, IS_NULL, MANUAL, JOIN, DISTINCT
+    }
+
+    /**
+     * The parts added so far (conditions, joins, ...): for each the kind,
+     * fields and operator, but none of the values. Appended to by
+     * addStructure as the filter is built.
+     */
+    private final List<Object> structure = new ArrayList<>();
+    /**
+     * The class, table and structure, null when the structure changed since
+     * it was made
+     */
+    private Shape structureShape = null;
+
     public AbstractFilter0Data(TableName tableName) {
         this(tableName, null);
     }
@@ -60,6 +79,40 @@ abstract class AbstractFilter0Data {
      */
     public abstract List<Object> getValues();
 
+    /**
+     * The structure of the filter: everything the sql depends on, but none of
+     * the values. Filters with equal shapes have the same sql, which is kept
+     * in SQLTemplates. The parts added to the filter are kept as they are
+     * added (see addStructure), the layers add their settings to that.
+     */
+    protected List<Object> getShape() {
+        if (structureShape == null) {
+            Object[] parts = new Object[structure.size() + 2];
+            parts[0] = getClass();
+            parts[1] = tableName;
+            for (int i = 0; i < structure.size(); i++) {
+                parts[i + 2] = structure.get(i);
+            }
+            structureShape = new Shape(parts);
+        }
+        List<Object> shape = new ArrayList<>();
+        shape.add(structureShape);
+        return shape;
+    }
+
+    /**
+     * Adds a part to the structure, e.g. (COMPARE, field, operator) for a
+     * condition. Call it for everything added to the sql, with what the sql
+     * of that part depends on.
+     */
+    protected void addStructure(Part kind, Object... parts) {
+        structure.add(kind);
+        for (Object part : parts) {
+            structure.add(part);
+        }
+        structureShape = null;
+    }
+
     public void setErrorMessage(String errorMessage) {
         this.errorMessage = errorMessage;
     }
@@ -87,12 +140,33 @@ abstract class AbstractFilter0Data {
     
     protected PreparedStatement prepStatement(LoggingConnection connection, String sql)
             throws SQLException {
+        return prepStatement(connection, sql, getValues());
+    }
+
+    /**
+     * Prepares sql with the given values, for sql other than that of the
+     * filter itself (e.g. a count)
+     */
+    protected PreparedStatement prepStatement(LoggingConnection connection,
+            String sql, List<Object> values) throws SQLException {
         PreparedStatement ps = connection.prepareStatement(sql);
-        List<Object> values = getValues();
+        setValues(connection, ps, values);
+        return ps;
+    }
+
+    /**
+     * Binds the values of a filter, arrays as sql arrays
+     */
+    static void setValues(LoggingConnection connection, PreparedStatement ps,
+            List<Object> values) throws SQLException {
         for (int i = 0; i < values.size(); i++) {
-            ps.setObject(i + 1, values.get(i));
+            Object value = values.get(i);
+            if (value instanceof ArrayValue) {
+                ps.setArray(i + 1, ((ArrayValue) value).toArray(connection));
+            } else {
+                ps.setObject(i + 1, value);
+            }
         }
-        return ps;
     }
 
     /**
@@ -77,6 +77,7 @@ abstract class AbstractFilter1Joins extends AbstractFilter0Data {
         checkFieldInTable(on2);
         joinOn1.add(on1);
         joinOn2.add(on2);
+        addStructure(Part.JOIN, table, on1, on2);
     }
     
     /**
@@ -146,6 +147,16 @@ abstract class AbstractFilter1Joins extends AbstractFilter0Data {
      * Verify that one of the tables contains the field f.
      */
     protected void checkFieldInTable(Field f) {
+        TableName of = TableName.getTable(f);
+        if (of != null) {
+            if (of != tableName && !joins.contains(of)) {
+                throw new IllegalArgumentException("Field: " + f
+                        + " not found in table(s). Current tables are: "
+                        + tableName + " + " + joins);
+            }
+            return;
+        }
+        // not a field of a known table, compare by name
         boolean found = checkFieldInTable(f, tableName);
         if (!found) {
             for (TableName table : joins) {
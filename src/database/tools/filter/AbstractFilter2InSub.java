@@ -1,9 +1,12 @@
 package database.tools.filter;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import database.internal.Field;
+import database.internal.TableName;
 import database.internal.dao.SimpleDAO;
 
 abstract class AbstractFilter2InSub extends AbstractFilter1Joins {
@@ -57,6 +60,28 @@ abstract class AbstractFilter2InSub extends AbstractFilter1Joins {
         return r;
     }
     
+    @Override
+    protected List<Object> getShape() {
+        List<Object> shape = super.getShape();
+        for (InSubfilter isf : inSubfilters) {
+            shape.add(isf.getShape());
+        }
+        return shape;
+    }
+
+    /**
+     * All tables the filter reads: the table, the joined tables and the
+     * tables of the subfilters
+     */
+    public Set<TableName> getTables() {
+        Set<TableName> tables = EnumSet.of(tableName);
+        tables.addAll(joins);
+        for (InSubfilter isf : inSubfilters) {
+            tables.addAll(isf.getTables());
+        }
+        return tables;
+    }
+
     /**
      * Returns a list of all the values ​​that must be entered in the SQL
      * statement.
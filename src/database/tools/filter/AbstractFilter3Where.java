@@ -8,11 +8,13 @@ import static database.internal.type.TypeUtils.checkString;
 import static database.internal.type.TypeUtils.getDate;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
 import database.internal.Field;
 import database.internal.dao.SimpleDAO;
+import database.internal.type.Types;
 
 /**
  * The part where the "where" clause gets implemented
@@ -86,8 +88,8 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
     }
 
     /**
-     * Adds a WHERE clause of the form "(f operator x1 OR f operator x2 OR f
-     * operator x3)".
+     * Adds a WHERE clause of the form "f operator ANY(x)", with x the dates as
+     * one array.
      */
     protected void fieldsOrDate(Field f, List<Date> x, String operator) {
         checkDate(f);
@@ -100,24 +102,74 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
     }
 
     /**
-     * Adds a WHERE clause of the form "(f operator x1 OR f operator x2 OR f
-     * operator x3)".
-     * 
+     * Adds a WHERE clause of the form "f operator ANY(x)", with x the objects
+     * as one array. This has the same meaning as "(f operator x1 OR f operator
+     * x2 OR ...)", but the sql is the same for any number of objects.
      */
     protected void fieldsOrObject(Field f, List<Object> x, String operator) {
-        checkFieldInTable(f);
         if (x == null || x.size() < 1) {
             throw new IllegalArgumentException(
                     "The list must contain least one object.");
         }
-        String q = "( ";
-        for (int i = 0; i < x.size() - 1; i++) {
-            q += f + " " + operator + " ? OR ";
-            values.add(x.get(i));
+        addAny(f, operator, x, false);
+    }
+
+    /**
+     * Adds a WHERE clause of the form "f operator ANY(x)" or, when not is
+     * true, "NOT (f operator ANY(x))". The objects should have the java type
+     * of the field, dates are converted.
+     */
+    protected void addAny(Field f, String operator, Collection<?> x,
+            boolean not) {
+        checkFieldInTable(f);
+        Types type = f.getTypeEnum();
+        if (type == Types.OID) {
+            throw new IllegalArgumentException("Can't compare OID-field " + f);
+        }
+        Object[] elements = new Object[x.size()];
+        int i = 0;
+        for (Object o : x) {
+            elements[i++] = toElement(f, o);
+        }
+        String condition = f + " " + operator + " ANY(?)";
+        query.add(not ? "NOT (" + condition + ")" : condition);
+        values.add(new ArrayValue(type.getName(), elements));
+        addStructure(not ? Part.NOT_ANY : Part.ANY, f, operator);
+    }
+
+    private static Object toElement(Field f, Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Can't compare " + f
+                    + " with null in a list, use fieldIsNull");
+        }
+        Class<?> expected;
+        switch (f.getTypeEnum()) {
+        case INT:
+        case CURRENCY:
+            expected = Integer.class;
+            break;
+        case REAL:
+            expected = Float.class;
+            break;
+        case BOOL:
+            expected = Boolean.class;
+            break;
+        case DATE:
+        case TIMESTAMP:
+            if (o instanceof Date) {
+                return getDate(f, (Date) o);
+            }
+            expected = Date.class;
+            break;
+        default:
+            expected = String.class;
+        }
+        if (!expected.isInstance(o)) {
+            throw new IllegalArgumentException("Wrong type: " + f
+                    + " is of type " + f.getType() + ", but got a "
+                    + o.getClass().getName());
         }
-        q += f + " " + operator + " ? ) ";
-        values.add(x.get(x.size() - 1));
-        query.add(q);
+        return o;
     }
 
     /* ******** ADD STUFF ******** */
@@ -132,6 +184,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
         // extract (dow from expiration_date)
         query.add("extract (dow from "+f + ") " + operator + " ?");
         values.add(w.ordinal());
+        addStructure(Part.WEEKDAY, f, operator);
         
     }
     
@@ -145,6 +198,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
     @Deprecated
     public void manualAdd(String sql, String... values){
         query.add(sql);
+        addStructure(Part.MANUAL, sql);
         for (String string : values) {
             this.values.add(string);
         }
@@ -157,6 +211,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
         checkString(f);
         checkFieldInTable(f);
         query.add(f + " " + operator + " ?");
+        addStructure(Part.COMPARE, f, operator);
         values.add(x);
     }
     
@@ -168,6 +223,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
         checkInteger(f);
         checkFieldInTable(f);
         query.add(f + " " + operator + " ?");
+        addStructure(Part.COMPARE, f, operator);
         values.add(x);
     }
 
@@ -178,6 +234,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
         checkFloat(f);
         checkFieldInTable(f);
         query.add(f + " " + operator + " ?");
+        addStructure(Part.COMPARE, f, operator);
         values.add(x);
     }
 
@@ -188,6 +245,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
         checkBool(f);
         checkFieldInTable(f);
         query.add(f + " = ?");
+        addStructure(Part.COMPARE, f, "=");
         values.add(x);
     }
 
@@ -198,6 +256,7 @@ abstract class AbstractFilter3Where extends AbstractFilter2InSub {
         checkDate(f);
         checkFieldInTable(f);
         query.add(f + " " + operator + " ?");
+        addStructure(Part.COMPARE, f, operator);
         values.add(getDate(f, x));
     }
 
@@ -5,6 +5,7 @@ import static database.internal.type.TypeUtils.checkInteger;
 import static database.internal.type.TypeUtils.checkString;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -77,7 +78,7 @@ abstract class AbstractFilter4WhereAdd extends AbstractFilter3Where {
     }
 
     /**
-     * Adds a WHERE clause of the form "(f = x1 OR f = x2 OR f = x3)".
+     * Adds a WHERE clause of the form "f = ANY(x)": f is one of the x's.
      */
     public void fieldsEqualsOrString(Field f, List<String> x) {
         checkString(f);
@@ -85,7 +86,7 @@ abstract class AbstractFilter4WhereAdd extends AbstractFilter3Where {
     }
 
     /**
-     * Adds a WHERE clause of the form "(f = x1 OR f = x2 OR f = x3)".
+     * Adds a WHERE clause of the form "f = ANY(x)": f is one of the x's.
      */
     public void fieldsEqualsOrInteger(Field f, List<Integer> x) {
         checkInteger(f);
@@ -93,7 +94,7 @@ abstract class AbstractFilter4WhereAdd extends AbstractFilter3Where {
     }
 
     /**
-     * Adds a WHERE clause of the form "(f = x1 OR f = x2 OR f = x3)".
+     * Adds a WHERE clause of the form "f = ANY(x)": f is one of the x's.
      */
     public void fieldsEqualsOrFloat(Field f, List<Float> x) {
         checkFloat(f);
@@ -101,12 +102,30 @@ abstract class AbstractFilter4WhereAdd extends AbstractFilter3Where {
     }
 
     /**
-     * Adds a WHERE clause of the form "(f = x1 OR f = x2 OR f = x3)".
+     * Adds a WHERE clause of the form "f = ANY(x)": f is one of the x's.
      */
     public void fieldsEqualsOrDate(Field f, List<Date> x) {
         fieldsOrDate(f, x, "=");
     }
 
+    /**
+     * Adds a WHERE clause of the form "f = ANY(x)", with x all values as one
+     * array: f is one of the values. The values should have the java type of
+     * the field (Integer, String, Float, Boolean or Date). When x is empty, no
+     * record matches.
+     */
+    public void fieldIn(Field f, Collection<?> x) {
+        addAny(f, "=", x, false);
+    }
+
+    /**
+     * Adds a WHERE clause of the form "NOT (f = ANY(x))": f is none of the
+     * values. Like NOT IN, records where f is null never match.
+     */
+    public void fieldNotIn(Field f, Collection<?> x) {
+        addAny(f, "=", x, true);
+    }
+
     /**
      * Adds a WHERE clause of the form "f != x".
      */
@@ -291,6 +310,7 @@ abstract class AbstractFilter4WhereAdd extends AbstractFilter3Where {
     
     public void fieldIsNull(Field f){
         query.add(f+" IS NULL");
+        addStructure(Part.IS_NULL, f);
     }
 
     
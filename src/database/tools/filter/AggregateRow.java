@@ -0,0 +1,109 @@
+package database.tools.filter;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import database.internal.Field;
+import database.tools.filter.Aggregation.Aggregate;
+
+/**
+ * A single row of an aggregation: the values of the group fields, which are
+ * read as in a Row, and the values of the aggregates.
+ *
+ * @author pietervdvn
+ */
+public class AggregateRow extends Row {
+
+    private final Aggregation aggregation;
+    private final Object[] values;
+
+    public AggregateRow(Aggregation aggregation, Map<Field, Integer> index,
+            Object[] values) {
+        super(index, values);
+        this.aggregation = aggregation;
+        this.values = values;
+    }
+
+    /**
+     * The raw value of the aggregate, as given by jdbc. Null for the SUM, AVG,
+     * MIN and MAX of a group without (non-null) values.
+     */
+    public Object get(Aggregate a) {
+        return values[a.getPosition(aggregation)];
+    }
+
+    public boolean isNull(Aggregate a) {
+        return get(a) == null;
+    }
+
+    /**
+     * The value as a long, e.g. for counts and sums of integers. 0 if null
+     */
+    public long getLong(Aggregate a) {
+        Number n = getNumber(a);
+        return n == null ? 0 : n.longValue();
+    }
+
+    /**
+     * The value as a double, e.g. for averages and sums of reals. 0 if null
+     */
+    public double getDouble(Aggregate a) {
+        Number n = getNumber(a);
+        return n == null ? 0 : n.doubleValue();
+    }
+
+    /**
+     * The exact value, e.g. for averages of integers. Null if null
+     */
+    public BigDecimal getDecimal(Aggregate a) {
+        Number n = getNumber(a);
+        if (n == null || n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        }
+        if (n instanceof Float || n instanceof Double) {
+            return BigDecimal.valueOf(n.doubleValue());
+        }
+        return BigDecimal.valueOf(n.longValue());
+    }
+
+    /**
+     * The MIN or MAX of a text field, null if null
+     */
+    public String getString(Aggregate a) {
+        Object v = get(a);
+        return v == null ? null : v.toString();
+    }
+
+    /**
+     * The MIN or MAX of a date field, null if null
+     */
+    public java.util.Date getDate(Aggregate a) {
+        Object v = get(a);
+        if (v != null && !(v instanceof java.util.Date)) {
+            throw new IllegalArgumentException(a + " is not a date");
+        }
+        return v == null ? null : new java.util.Date(
+                ((java.util.Date) v).getTime());
+    }
+
+    private Number getNumber(Aggregate a) {
+        Object v = get(a);
+        if (v != null && !(v instanceof Number)) {
+            throw new IllegalArgumentException(a + " is not a number");
+        }
+        return (Number) v;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(super.toString());
+        for (Aggregate a : aggregation.getAggregates()) {
+            builder.append("\n");
+            builder.append(a);
+            builder.append(": ");
+            builder.append(get(a));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,299 @@
+package database.tools.filter;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import database.DataAccessException;
+import database.internal.Field;
+import database.internal.type.TypeUtils;
+import database.internal.type.Types;
+import database.tools.logging.LoggingConnection;
+import database.tools.logging.PreparedStatement;
+
+/**
+ * Sums, averages, minima, maxima and counts over the records matched by a
+ * select filter, computed by the db. Made with SelectFilter.aggregate and
+ * executed with executeAggregation on the DAO, which gives an AggregateRow
+ * per group (or a single row when nothing is grouped on).
+ *
+ * Each aggregate function returns an Aggregate, which is used to read its
+ * value from the rows and to filter the groups with having. The ordering,
+ * paging and distinct of the filter are ignored, the groups are ordered on
+ * the group fields.
+ *
+ * @author pietervdvn
+ */
+public class Aggregation {
+
+    public static enum Function {
+        SUM("SUM(%s)"), AVG("AVG(%s)"), MIN("MIN(%s)"), MAX("MAX(%s)"), COUNT(
+                "COUNT(*)"), COUNT_DISTINCT("COUNT(DISTINCT %s)");
+
+        private final String sql;
+
+        private Function(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * A single aggregate function of an aggregation, e.g. SUM(f)
+     */
+    public static final class Aggregate {
+
+        private final Aggregation owner;
+        private final Function function;
+        /**
+         * Null for COUNT(*)
+         */
+        private final Field field;
+        /**
+         * Position in the values of a row
+         */
+        private int position;
+
+        private Aggregate(Aggregation owner, Function function, Field field) {
+            this.owner = owner;
+            this.function = function;
+            this.field = field;
+        }
+
+        public Function getFunction() {
+            return function;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public String getSQL() {
+            return String.format(function.sql, field);
+        }
+
+        int getPosition(Aggregation of) {
+            if (owner != of) {
+                throw new IllegalArgumentException(this
+                        + " belongs to another aggregation");
+            }
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return getSQL();
+        }
+    }
+
+    private static final List<String> OPERATORS = Arrays.asList("=", "<>",
+            "<", "<=", ">", ">=");
+
+    private final SelectFilter filter;
+    private final List<Field> groupBy = new ArrayList<>();
+    private final List<Aggregate> aggregates = new ArrayList<>();
+    private final List<String> having = new ArrayList<>();
+    private final List<Object> havingValues = new ArrayList<>();
+
+    Aggregation(SelectFilter filter) {
+        this.filter = filter;
+    }
+
+    public SelectFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Groups the records on the fields, giving a row per distinct
+     * combination. The group fields can be read from the rows.
+     */
+    public Aggregation groupBy(Field... fields) {
+        for (Field f : fields) {
+            filter.checkFieldInTable(f);
+            if (f.getTypeEnum() == Types.OID) {
+                throw new IllegalArgumentException("Can not group on " + f);
+            }
+            if (!groupBy.contains(f)) {
+                groupBy.add(f);
+            }
+        }
+        renumber();
+        return this;
+    }
+
+    public Aggregate sum(Field f) {
+        TypeUtils.checkType(f, Types.INT, Types.CURRENCY, Types.REAL);
+        return add(Function.SUM, f);
+    }
+
+    public Aggregate avg(Field f) {
+        TypeUtils.checkType(f, Types.INT, Types.CURRENCY, Types.REAL);
+        return add(Function.AVG, f);
+    }
+
+    public Aggregate min(Field f) {
+        checkComparable(f);
+        return add(Function.MIN, f);
+    }
+
+    public Aggregate max(Field f) {
+        checkComparable(f);
+        return add(Function.MAX, f);
+    }
+
+    /**
+     * The number of records (of the group)
+     */
+    public Aggregate count() {
+        return add(Function.COUNT, null);
+    }
+
+    /**
+     * The number of different non-null values of f (in the group)
+     */
+    public Aggregate countDistinct(Field f) {
+        if (f.getTypeEnum() == Types.OID) {
+            throw new IllegalArgumentException("Can not count " + f);
+        }
+        return add(Function.COUNT_DISTINCT, f);
+    }
+
+    /**
+     * Only keeps the groups for which "aggregate operator value" holds, e.g.
+     * having(count, ">", 5). Operator is one of =, <>, <, <=, > and >=.
+     */
+    public Aggregation having(Aggregate aggregate, String operator,
+            Object value) {
+        aggregate.getPosition(this);
+        if (!OPERATORS.contains(operator)) {
+            throw new IllegalArgumentException("Unknown operator " + operator
+                    + ", use one of " + OPERATORS);
+        }
+        if (value instanceof java.util.Date) {
+            value = TypeUtils.getDate(aggregate.getField(),
+                    (java.util.Date) value);
+        }
+        having.add(aggregate.getSQL() + " " + operator + " ?");
+        havingValues.add(value);
+        return this;
+    }
+
+    public List<Field> getGroupBy() {
+        return Collections.unmodifiableList(groupBy);
+    }
+
+    public List<Aggregate> getAggregates() {
+        return Collections.unmodifiableList(aggregates);
+    }
+
+    public String getSQL() {
+        if (aggregates.isEmpty()) {
+            throw new IllegalStateException(
+                    "Add at least one aggregate function");
+        }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String sep = "";
+        for (Field f : groupBy) {
+            sql.append(sep).append(f);
+            sep = ", ";
+        }
+        for (Aggregate a : aggregates) {
+            sql.append(sep).append(a.getSQL());
+            sep = ", ";
+        }
+        sql.append(" ").append(filter.getFromClause());
+        sql.append(" ").append(filter.getWhereSQL(filter.getInvert()));
+        if (!groupBy.isEmpty()) {
+            sql.append(" GROUP BY ").append(join(groupBy));
+        }
+        if (!having.isEmpty()) {
+            sql.append(" HAVING ");
+            for (int i = 0; i < having.size(); i++) {
+                if (i > 0) {
+                    sql.append(" AND ");
+                }
+                sql.append(having.get(i));
+            }
+        }
+        if (!groupBy.isEmpty()) {
+            sql.append(" ORDER BY ").append(join(groupBy));
+        }
+        return sql.toString();
+    }
+
+    public List<Object> getValues() {
+        List<Object> values = filter.getConditionValues();
+        values.addAll(havingValues);
+        return values;
+    }
+
+    public PreparedStatement prepStatement(LoggingConnection connection)
+            throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(getSQL());
+        AbstractFilter0Data.setValues(connection, ps, getValues());
+        return ps;
+    }
+
+    /**
+     * The index of the group fields, for the rows of the result
+     */
+    public Map<Field, Integer> createIndex() {
+        return Row.createIndex(groupBy);
+    }
+
+    /**
+     * The number of columns of the result
+     */
+    public int getColumnCount() {
+        return groupBy.size() + aggregates.size();
+    }
+
+    public DataAccessException prepException(Throwable cause) {
+        DataAccessException e = new DataAccessException(
+                "Could not execute aggregation " + getSQL(), cause);
+        if (filter.getErrorMessage() != null) {
+            e = new DataAccessException(filter.getErrorMessage(), e);
+        }
+        return e;
+    }
+
+    private Aggregate add(Function function, Field f) {
+        if (f != null) {
+            filter.checkFieldInTable(f);
+        }
+        Aggregate a = new Aggregate(this, function, f);
+        aggregates.add(a);
+        renumber();
+        return a;
+    }
+
+    /**
+     * The aggregates come after the group fields in a row
+     */
+    private void renumber() {
+        for (int i = 0; i < aggregates.size(); i++) {
+            aggregates.get(i).position = groupBy.size() + i;
+        }
+    }
+
+    private static void checkComparable(Field f) {
+        if (f.getTypeEnum() == Types.OID || f.getTypeEnum() == Types.BOOL) {
+            throw new IllegalArgumentException("Can not take the minimum or maximum of "
+                    + f);
+        }
+    }
+
+    private static String join(List<Field> fields) {
+        StringBuilder b = new StringBuilder();
+        for (Field f : fields) {
+            if (b.length() > 0) {
+                b.append(", ");
+            }
+            b.append(f);
+        }
+        return b.toString();
+    }
+
+}
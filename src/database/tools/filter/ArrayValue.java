@@ -0,0 +1,53 @@
+package database.tools.filter;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import database.tools.logging.LoggingConnection;
+
+/**
+ * A value of a filter that is bound as a single sql array, e.g. for
+ * "f = ANY(?)". Equal arrays are equal values, so filters with the same
+ * elements have the same values.
+ *
+ * @author pietervdvn
+ */
+final class ArrayValue {
+
+    /**
+     * Sql type of the elements
+     */
+    private final String type;
+    private final Object[] elements;
+
+    ArrayValue(String type, Object[] elements) {
+        this.type = type;
+        this.elements = elements;
+    }
+
+    Array toArray(LoggingConnection connection) throws SQLException {
+        return connection.createArrayOf(type, elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode() * 31 + Arrays.hashCode(elements);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ArrayValue)) {
+            return false;
+        }
+        ArrayValue other = (ArrayValue) obj;
+        return type.equals(other.type)
+                && Arrays.equals(elements, other.elements);
+    }
+
+    @Override
+    public String toString() {
+        return type + Arrays.toString(elements);
+    }
+
+}
@@ -1,5 +1,7 @@
 package database.tools.filter;
 
+import java.util.List;
+
 import database.internal.Field;
 import database.internal.dao.SimpleDAO;
 
@@ -35,8 +37,21 @@ public class DeleteFilter extends AbstractFilter {
     }
     
 
+    /**
+     * Gives the DELETE statement, built once for each shape of filter
+     */
     @Override
     public String getSQL() {
+        List<Object> shape = getShape();
+        String sql = SQLTemplates.get(shape);
+        if (sql == null) {
+            sql = buildSQL();
+            SQLTemplates.put(shape, sql);
+        }
+        return sql;
+    }
+
+    private String buildSQL() {
         String r = "DELETE ";
         r += "FROM " + tableName + " ";
         if (!joins.isEmpty()) {
@@ -1,8 +1,10 @@
 package database.tools.filter;
 
 import java.util.List;
+import java.util.Set;
 
 import database.internal.Field;
+import database.internal.TableName;
 
 /**
  * Model class for a subfilter in AbstractFilter.
@@ -26,6 +28,21 @@ public class InSubfilter {
         return subfilter.getValues();
     }
 
+    public Set<TableName> getTables() {
+        return subfilter.getTables();
+    }
+
+    /**
+     * The structure of this condition, see AbstractFilter0Data.getShape
+     */
+    List<Object> getShape() {
+        List<Object> shape = subfilter.getShape();
+        shape.add(fieldOfSubfilter);
+        shape.add(fieldIn);
+        shape.add(reversed);
+        return shape;
+    }
+
     public String getFilterSQL() {
         return fieldIn + " " + (reversed ? "NOT IN" : "IN") + " ( " + subfilter.getSQL(fieldOfSubfilter) + " ) ";
     }
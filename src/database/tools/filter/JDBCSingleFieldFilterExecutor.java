@@ -96,10 +96,7 @@ public class JDBCSingleFieldFilterExecutor implements SingleFieldFilterExecutor
             throws SQLException {
         PreparedStatement ps = connection
                 .prepareStatement(filter.getSQL(field));
-        List<Object> values = filter.getValues();
-        for (int i = 0; i < values.size(); i++) {
-            ps.setObject(i + 1, values.get(i));
-        }
+        AbstractFilter0Data.setValues(connection, ps, filter.getValues());
         return ps;
     }
 
@@ -0,0 +1,68 @@
+package database.tools.filter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the records of a filter (see DAO.executePage), together with the
+ * total number of records the filter matches.
+ *
+ * @author pietervdvn
+ * @param <T>
+ *            Record class
+ */
+public class Page<T> {
+
+    private final List<T> records;
+    private final int total;
+    private final int limit;
+    private final int offset;
+
+    public Page(List<T> records, int total, int limit, int offset) {
+        if (limit < 1) {
+            throw new IllegalArgumentException(
+                    "A page should have a limit of at least 1, not " + limit);
+        }
+        this.records = Collections.unmodifiableList(records);
+        this.total = total;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public List<T> getRecords() {
+        return records;
+    }
+
+    /**
+     * The number of records matching the filter, on all pages
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * The number of pages of this size needed for all records
+     */
+    public int getPageCount() {
+        return (total + limit - 1) / limit;
+    }
+
+    public boolean hasNext() {
+        return offset + records.size() < total;
+    }
+
+    @Override
+    public String toString() {
+        return "#Page# " + offset + "-" + (offset + records.size()) + " of "
+                + total;
+    }
+
+}
@@ -0,0 +1,110 @@
+package database.tools.filter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import database.internal.Field;
+import database.internal.type.TypeUtils;
+
+/**
+ * A single row of a projection (see SelectFilter.select), holding only the
+ * selected fields. Values are looked up by field.
+ *
+ * @author pietervdvn
+ */
+public class Row {
+
+    /**
+     * Position of each field in values, shared by all rows of a result
+     */
+    private final Map<Field, Integer> index;
+    private final Object[] values;
+
+    public Row(Map<Field, Integer> index, Object[] values) {
+        this.index = index;
+        this.values = values;
+    }
+
+    /**
+     * Creates the index of the fields, for the rows of a result with these
+     * columns
+     */
+    public static Map<Field, Integer> createIndex(List<Field> fields) {
+        Map<Field, Integer> index = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            index.put(fields.get(i), i);
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * The raw value of the field, as given by jdbc. Null if the value is null
+     */
+    public Object get(Field f) {
+        Integer i = index.get(f);
+        if (i == null) {
+            throw new IllegalArgumentException("The field " + f
+                    + " is not selected. Selected are " + index.keySet());
+        }
+        return values[i];
+    }
+
+    public boolean isNull(Field f) {
+        return get(f) == null;
+    }
+
+    /**
+     * Gives the integer value, 0 if null
+     */
+    public int getInt(Field f) {
+        TypeUtils.checkInteger(f);
+        Object v = get(f);
+        return v == null ? 0 : ((Number) v).intValue();
+    }
+
+    /**
+     * Gives the string value, the empty string if null
+     */
+    public String getString(Field f) {
+        TypeUtils.checkString(f);
+        Object v = get(f);
+        return v == null ? "" : v.toString();
+    }
+
+    public Float getFloat(Field f) {
+        TypeUtils.checkFloat(f);
+        Object v = get(f);
+        return v == null ? 0f : ((Number) v).floatValue();
+    }
+
+    public boolean getBoolean(Field f) {
+        TypeUtils.checkBool(f);
+        Object v = get(f);
+        return v != null && (Boolean) v;
+    }
+
+    /**
+     * Gives the date or timestamp value, null if null
+     */
+    public java.util.Date getDate(Field f) {
+        TypeUtils.checkDate(f);
+        Object v = get(f);
+        return v == null ? null : new java.util.Date(
+                ((java.util.Date) v).getTime());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("#Row#");
+        for (Map.Entry<Field, Integer> e : index.entrySet()) {
+            builder.append("\n");
+            builder.append(e.getKey().getNameColumn());
+            builder.append(": ");
+            builder.append(values[e.getValue()]);
+        }
+        return builder.toString();
+    }
+
+}
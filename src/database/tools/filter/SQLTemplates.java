@@ -0,0 +1,41 @@
+package database.tools.filter;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The sql of all filters, by shape (see AbstractFilter0Data.getShape). Filters
+ * that only differ in their values share the sql, so it is built only once.
+ * Shared by all threads.
+ *
+ * @author pietervdvn
+ */
+final class SQLTemplates {
+
+    /**
+     * When this many templates are kept, all are dropped. Only happens with
+     * lots of different manualAdd's.
+     */
+    static final int MAX_TEMPLATES = 10000;
+
+    private static final ConcurrentMap<List<Object>, String> templates = new ConcurrentHashMap<>();
+
+    private SQLTemplates() {
+    }
+
+    /**
+     * The sql of the shape, null if it was not built yet
+     */
+    static String get(List<Object> shape) {
+        return templates.get(shape);
+    }
+
+    static void put(List<Object> shape, String sql) {
+        if (templates.size() >= MAX_TEMPLATES) {
+            templates.clear();
+        }
+        templates.put(shape, sql);
+    }
+
+}
@@ -2,6 +2,9 @@ package database.tools.filter;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 import database.internal.Field;
@@ -19,14 +22,30 @@ import database.tools.logging.PreparedStatement;
 public class SelectFilter extends AbstractFilter {
 
     /**
-     * When true: count instead of returning entries
+     * When true: reverse all where clauses where
      */
-    private boolean count = false;
+    private boolean invert = false;
 
     /**
-     * When true: reverse all where clauses where
+     * Keyset paging: the fields to order on (ending with the id fields), the
+     * page size, and the key of the last row of the previous page (null for
+     * the first page) with the positions of its null values
      */
-    private boolean invert = false;
+    private List<Field> keyset = null;
+    private boolean keysetAscending = true;
+    private int keysetLimit;
+    private List<Object> keysetAfter = null;
+    private BitSet keysetNulls = null;
+
+    /**
+     * The only fields to select, null to select the full records
+     */
+    private List<Field> projection = null;
+
+    /**
+     * When true, the results may come from the query cache
+     */
+    private boolean cached = false;
 
     /**
      * Creates a select filter. The filter will select records of the table
@@ -64,13 +83,155 @@ public class SelectFilter extends AbstractFilter {
         return this.invert;
     }
 
+    /**
+     * Pages through the results with a key instead of an offset. The results
+     * are ordered on the given fields, followed by the id fields of the table
+     * to make the order unique. A page holds at most pageSize records.
+     * 
+     * The first page is returned until seekAfter is called with the key of
+     * the last record of a page; the next page then starts right after it
+     * with a condition on the key instead of an offset, so deep pages are as
+     * cheap as the first one. The order fields should be fields of the table
+     * itself, and replace setOrder and setPaging. Null values are ordered
+     * after all others (NULLS LAST) when ascending and before them when
+     * descending, as postgres does by default.
+     */
+    public SelectFilter setKeysetPaging(int pageSize, boolean ascending,
+            Field... orderFields) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(
+                    "The page size should be at least 1, not " + pageSize);
+        }
+        List<Field> tableFields = Arrays.asList(tableName.getFields());
+        List<Field> fields = new ArrayList<>();
+        for (Field f : orderFields) {
+            if (!tableFields.contains(f) || f.getTypeEnum() == Types.OID) {
+                throw new IllegalArgumentException("Can not page on " + f
+                        + ", keyset paging only works on the fields of "
+                        + tableName);
+            }
+            fields.add(f);
+        }
+        for (Field id : tableName.getIdFields()) {
+            if (!fields.contains(id)) {
+                fields.add(id);
+            }
+        }
+        this.keyset = fields;
+        this.keysetAscending = ascending;
+        this.keysetLimit = pageSize;
+        this.keysetAfter = null;
+        this.keysetNulls = null;
+        return this;
+    }
+
+    /**
+     * Sets the key of the last record of the previous page: a value for each
+     * field of getKeysetFields, in that order. Pass nothing to start at the
+     * first page again.
+     */
+    public SelectFilter seekAfter(Object... lastKey) {
+        if (keyset == null) {
+            throw new IllegalStateException(
+                    "Use setKeysetPaging before seekAfter");
+        }
+        if (lastKey.length == 0) {
+            keysetAfter = null;
+            keysetNulls = null;
+            return this;
+        }
+        if (lastKey.length != keyset.size()) {
+            throw new IllegalArgumentException("The key should have "
+                    + keyset.size() + " values, namely for " + keyset);
+        }
+        BitSet nulls = new BitSet(lastKey.length);
+        for (int i = 0; i < lastKey.length; i++) {
+            nulls.set(i, lastKey[i] == null);
+        }
+        keysetAfter = new ArrayList<>(Arrays.asList(lastKey));
+        keysetNulls = nulls;
+        return this;
+    }
+
+    /**
+     * The fields the keyset paging orders on, null if no keyset paging is
+     * used
+     */
+    public List<Field> getKeysetFields() {
+        return keyset == null ? null : Collections.unmodifiableList(keyset);
+    }
+
+    public int getKeysetPageSize() {
+        return keysetLimit;
+    }
+
+    /**
+     * Selects only the given fields, which can be fields of joined tables as
+     * well. Execute with executeProjection on the DAO, which gives a Row per
+     * result with just these fields. Executing the filter in the normal way
+     * still gives the full records.
+     */
+    public SelectFilter select(Field... fields) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("Select at least one field");
+        }
+        List<Field> p = new ArrayList<>();
+        for (Field f : fields) {
+            checkFieldInTable(f);
+            if (f.getTypeEnum() == Types.OID) {
+                throw new IllegalArgumentException("Can not select " + f
+                        + ", OID fields are never selected");
+            }
+            p.add(f);
+        }
+        projection = p;
+        return this;
+    }
+
+    /**
+     * Starts an aggregation over the records matched by this filter, e.g.
+     * filter.aggregate().groupBy(f).count(). Conditions added to this filter
+     * later still apply to the aggregation.
+     */
+    public Aggregation aggregate() {
+        return new Aggregation(this);
+    }
+
+    /**
+     * The values of the conditions only, without those of the paging
+     */
+    List<Object> getConditionValues() {
+        return super.getValues();
+    }
+
+    /**
+     * The fields given with select, null if none were given
+     */
+    public List<Field> getProjection() {
+        return projection == null ? null : Collections
+                .unmodifiableList(projection);
+    }
+
+    public String getProjectionSQL() {
+        if (projection == null) {
+            throw new IllegalStateException(
+                    "No projection set, use select(fields) first");
+        }
+        return getSelectSQL(projection);
+    }
+
+    public PreparedStatement prepProjectionStatement(LoggingConnection c)
+            throws SQLException {
+        return prepStatement(c, getProjectionSQL());
+    }
+
     @Override
     public String getSQL() {
-        return getSQL(tableName.getFields());
+        return getSelectSQL(Select.RECORDS);
     }
 
     public String getFullSQL() {
-        return getSQL(getAllFields());
+        return getSelectSQL(Select.FULL);
     }
 
     public PreparedStatement prepFullStatement(LoggingConnection c)
@@ -86,29 +247,92 @@ public class SelectFilter extends AbstractFilter {
      */
     protected String getSQL(Field field) {
         checkFieldInTable(field);
-        Field[] fields = { field };
-        return getSQL(fields);
+        return getSelectSQL(field);
     }
 
-    
-    private String getSQL(Field[] fields) {
+    /**
+     * What a query selects, next to a projection (list of fields) or a
+     * single field. Counts and pages are selected with their own sql, so the
+     * filter itself is never changed for them.
+     */
+    private enum Select {
+        /** the fields of the table */
+        RECORDS,
+        /** the fields of the table and of the joined tables */
+        FULL,
+        /** the number of records, without paging */
+        COUNT,
+        /** the fields of the table, with "LIMIT ? OFFSET ?" as paging */
+        PAGE,
+        /**
+         * as PAGE, with as extra last column the number of records matching
+         * the filter without paging
+         */
+        PAGE_TOTAL
+    }
+
+    /**
+     * The fields that are selected, see getSelectSQL
+     */
+    @SuppressWarnings("unchecked")
+    private List<Field> getSelectedFields(Object selected) {
+        if (selected instanceof List) {
+            return (List<Field>) selected;
+        }
+        Field[] fields;
+        if (selected == Select.FULL) {
+            fields = getAllFields();
+        } else if (selected instanceof Select) {
+            fields = tableName.getFields();
+        } else {
+            fields = new Field[] { (Field) selected };
+        }
         List<Field> f = new ArrayList<>();
         for (Field field : fields) {
             if(field.getTypeEnum() != Types.OID){
                 f.add(field);
             }
         }
-        return getSQL(f);
+        return f;
     }
         
         
     
+    @Override
+    protected List<Object> getShape() {
+        List<Object> shape = super.getShape();
+        shape.add(invert);
+        if (keyset != null) {
+            shape.add(keyset);
+            shape.add(keysetAscending);
+            shape.add(keysetNulls);
+        }
+        return shape;
+    }
+
+    /**
+     * Gives the SQL-query selecting a Select, the projection or a single
+     * field, built once for each shape of filter. The fields are only looked
+     * up when the query is built.
+     */
+    private String getSelectSQL(Object selected) {
+        List<Object> shape = getShape();
+        shape.add(selected);
+        String sql = SQLTemplates.get(shape);
+        if (sql == null) {
+            sql = buildSQL(selected);
+            SQLTemplates.put(shape, sql);
+        }
+        return sql;
+    }
+
     /**
-     * Generates the SQL-query, with all the specified fields. When dirtyNames
-     * is true, fields will be of the named form user_id (with an _ instead of a
-     * .) Used for fullSql
+     * Generates the SQL-query, selecting what getSelectSQL was asked for.
      */
-    private String getSQL(List<Field> fields) {
+    private String buildSQL(Object selected) {
+        boolean count = selected == Select.COUNT;
+        boolean page = selected == Select.PAGE
+                || selected == Select.PAGE_TOTAL;
         String r = "SELECT ";
 
         if (count) {
@@ -123,32 +347,253 @@ public class SelectFilter extends AbstractFilter {
                 r += distinct.get(distinct.size() - 1) + ") ";
             }
             
-            for (Field field : fields) {
+            for (Field field : getSelectedFields(selected)) {
                 r += field;
                 r += ", ";
             }
 
             r = r.substring(0, r.length() - 2);
+            if (selected == Select.PAGE_TOTAL) {
+                r += ", COUNT(*) OVER () ";
+            }
         }
 
         r += getFromClause();
 
-        r += getWhereSQL(invert);
+        String where = getWhereSQL(invert);
+        r += where;
+
+        if (keyset != null && !count) {
+            return r + getKeysetSQL(where.isEmpty());
+        }
         
         if (orderBy != null) {
             r += " " + orderBy;
         }
-        if (paging != null) {
+        if (page) {
+            r += " LIMIT ? OFFSET ?";
+        } else if (paging != null && !count) {
             r += " " + paging;
         }
         return r;
     }
 
+    /**
+     * The seek condition (if any), ORDER BY and LIMIT of the keyset paging
+     */
+    private String getKeysetSQL(boolean noWhere) {
+        String order = "";
+        String direction = keysetAscending ? " ASC NULLS LAST"
+                : " DESC NULLS FIRST";
+        for (Field f : keyset) {
+            order += f + direction + ", ";
+        }
+        order = order.substring(0, order.length() - 2);
+
+        String r = "";
+        if (keysetAfter != null) {
+            r += (noWhere ? "WHERE " : "AND ") + "(" + getSeekSQL() + ") ";
+        }
+        return r + "ORDER BY " + order + " LIMIT ?";
+    }
+
+    /**
+     * The rows after the key: "(k1 after v1) OR (k1 = v1 AND k2 after v2) OR
+     * ...". A row comparison "(k1, k2) > (v1, v2)" is never true when a key or
+     * value is null, so each part is written out for the nulls of the key
+     * (see keysetNulls). The values are given by addSeekValues, in the same
+     * order.
+     */
+    private String getSeekSQL() {
+        List<String> parts = new ArrayList<>();
+        String equal = "";
+        for (int i = 0; i < keyset.size(); i++) {
+            Field f = keyset.get(i);
+            String after = getAfterSQL(f, keysetNulls.get(i));
+            if (after != null) {
+                parts.add("(" + equal + after + ")");
+            }
+            equal += f + (keysetNulls.get(i) ? " IS NULL" : " = ?") + " AND ";
+        }
+        if (parts.isEmpty()) {
+            return "FALSE";
+        }
+        String r = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) {
+            r += " OR " + parts.get(i);
+        }
+        return r;
+    }
+
+    /**
+     * The condition for the values of f that come after the value of the
+     * key, null if none do. Nulls come last when ascending, first when
+     * descending.
+     */
+    private String getAfterSQL(Field f, boolean isNull) {
+        if (!hasAfter(isNull)) {
+            return null;
+        }
+        if (keysetAscending) {
+            return "(" + f + " > ? OR " + f + " IS NULL)";
+        }
+        return isNull ? f + " IS NOT NULL" : f + " < ?";
+    }
+
+    /**
+     * False if no value comes after the null at the end of an ascending order
+     */
+    private boolean hasAfter(boolean isNull) {
+        return !(keysetAscending && isNull);
+    }
+
+    private void addSeekValues(List<Object> v) {
+        for (int i = 0; i < keyset.size(); i++) {
+            boolean isNull = keysetNulls.get(i);
+            if (!hasAfter(isNull)) {
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                if (!keysetNulls.get(j)) {
+                    v.add(keysetAfter.get(j));
+                }
+            }
+            if (!isNull) {
+                v.add(keysetAfter.get(i));
+            }
+        }
+    }
+
+    /**
+     * The values of the conditions, followed by those of the keyset paging or
+     * of the normal paging.
+     */
+    @Override
+    public List<Object> getValues() {
+        List<Object> v = super.getValues();
+        if (keyset != null) {
+            if (keysetAfter != null) {
+                addSeekValues(v);
+            }
+            v.add(keysetLimit);
+        } else if (paging != null) {
+            v.add(pagingLimit);
+            v.add(pagingOffset);
+        }
+        return v;
+    }
+
+    /**
+     * Lets the DAO's answer this filter (and its count) out of the query
+     * cache, when the provider has one. A cached result might be outdated
+     * when the db is changed by something else then the DAO's of this
+     * program.
+     */
+    public SelectFilter setCached(boolean cached) {
+        this.cached = cached;
+        return this;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * The sql counting the records of the filter, ignoring its paging
+     */
+    public String getCountSQL() {
+        return getSelectSQL(Select.COUNT);
+    }
+
+    public List<Object> getCountValues() {
+        return super.getValues();
+    }
+
     public PreparedStatement prepCountStatement(LoggingConnection connection)
             throws SQLException {
-        count = true;
-        PreparedStatement ps = super.prepStatement(connection, getSQL());
-        count = false;
+        return prepStatement(connection, getCountSQL(), getCountValues());
+    }
+
+    /**
+     * The sql for the records from an offset to offset + limit, in place of
+     * the paging of the filter. With total, the number of records matching
+     * the filter without paging is selected as extra last column, counted in
+     * the same scan by COUNT(*) OVER (), see canCountInPage.
+     */
+    public String getPageSQL(boolean total) {
+        if (keyset != null) {
+            throw new IllegalStateException(
+                    "Can not take an offset page of a keyset paged filter");
+        }
+        if (total && !canCountInPage()) {
+            throw new IllegalStateException(
+                    "Can not count distinct filters in a page");
+        }
+        return getSelectSQL(total ? Select.PAGE_TOTAL : Select.PAGE);
+    }
+
+    public List<Object> getPageValues(int limit, int offset) {
+        List<Object> v = super.getValues();
+        v.add(limit);
+        v.add(offset);
+        return v;
+    }
+
+    public PreparedStatement prepPageStatement(LoggingConnection connection,
+            int limit, int offset, boolean total) throws SQLException {
+        return prepStatement(connection, getPageSQL(total),
+                getPageValues(limit, offset));
+    }
+
+    /**
+     * False if the total can not be selected with the page, as the window
+     * count is taken before the DISTINCT ON and the keyset paging
+     */
+    public boolean canCountInPage() {
+        return distinct.isEmpty() && keyset == null;
+    }
+
+    /**
+     * The SQL for the records with an id from 'from' to 'to' (both included):
+     * the sql of this filter as subquery, restricted to the range and, when
+     * ordered, ordered on the id. The values are those of getValues, followed
+     * by from and to. Only for tables with a single integer id and filters
+     * without paging.
+     */
+    public String getRangeSQL(boolean ordered) {
+        Field[] ids = tableName.getIdFields();
+        if (ids.length != 1 || ids[0].getTypeEnum() != Types.INT) {
+            throw new IllegalArgumentException(tableName
+                    + " has no single integer id to split on");
+        }
+        if (paging != null || keyset != null) {
+            throw new IllegalStateException(
+                    "Can not split a filter with paging in id ranges");
+        }
+        String id = "q." + ids[0].getNameColumn();
+        return "SELECT * FROM (" + getSQL() + ") AS q WHERE " + id
+                + " BETWEEN ? AND ?"
+                + (ordered ? " ORDER BY " + id : "");
+    }
+
+    public PreparedStatement prepRangeStatement(LoggingConnection connection,
+            int from, int to, boolean ordered) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(getRangeSQL(ordered));
+        List<Object> values = getValues();
+        values.add(from);
+        values.add(to);
+        setValues(connection, ps, values);
         return ps;
     }
+
+    /**
+     * Prepares "prefix sql suffix", with sql the sql of this filter selecting
+     * only field, e.g. to use the filter as subquery. The values of the filter
+     * are bound first, the parameters of suffix come after them (from
+     * getValues().size() + 1).
+     */
+    public PreparedStatement prepSubqueryStatement(LoggingConnection c,
+            String prefix, Field field, String suffix) throws SQLException {
+        return prepStatement(c, prefix + getSQL(field) + suffix);
+    }
 }
@@ -0,0 +1,44 @@
+package database.tools.filter;
+
+import java.util.Arrays;
+
+/**
+ * A fixed part of the shape of a filter (see AbstractFilter0Data.getShape),
+ * e.g. the conditions added so far. Its hash is computed once, so using it
+ * as (part of) a key of SQLTemplates does not walk the parts again.
+ *
+ * @author pietervdvn
+ */
+final class Shape {
+
+    private final Object[] parts;
+    private final int hash;
+
+    Shape(Object[] parts) {
+        this.parts = parts;
+        this.hash = Arrays.hashCode(parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Shape)) {
+            return false;
+        }
+        Shape other = (Shape) obj;
+        return hash == other.hash && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(parts);
+    }
+
+}
@@ -1,17 +1,59 @@
 package database.tools.logging;
 
 import java.io.OutputStream;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import database.tools.pool.ConnectionPool;
 
 public class LoggingConnection {
 
     private final Connection connection;
     private final OutputStream out;
     private final Out logStream;
+    /**
+     * The pool the connection came from, null if it is not pooled
+     */
+    private final ConnectionPool pool;
+    /**
+     * Shared with all logging connections on the same pooled connection, so
+     * it is given back only once
+     */
+    private final AtomicBoolean released;
+    /**
+     * Prepared statements of this connection that can be reused
+     */
+    private final StatementCache statements;
 
     public LoggingConnection(Connection c, int u, OutputStream logStream) {
+        this(c, u, logStream, new StatementCache(StatementCache.DEFAULT_SIZE));
+    }
+
+    public LoggingConnection(Connection c, int u, OutputStream logStream,
+            StatementCache statements) {
+        this(c, u, logStream, null, new AtomicBoolean(false), statements);
+    }
+
+    /**
+     * A logging connection on a pooled connection. Closing it gives the
+     * connection back to the pool. The statement cache of the pooled
+     * connection is reused.
+     */
+    public LoggingConnection(Connection c, int u, OutputStream logStream,
+            ConnectionPool pool) {
+        this(c, u, logStream, pool, new AtomicBoolean(false), pool
+                .getStatementCache(c));
+    }
+
+    private LoggingConnection(Connection c, int u, OutputStream logStream,
+            ConnectionPool pool, AtomicBoolean released,
+            StatementCache statements) {
         this.connection = c;
+        this.pool = pool;
+        this.released = released;
+        this.statements = statements;
         if (logStream != null) {
             this.logStream = new UserDateLogger(u, logStream);
         } else {
@@ -21,16 +63,28 @@ public class LoggingConnection {
     }
 
     public LoggingConnection getLoggingConnectionFor(int u) {
-        return new LoggingConnection(connection, u, out);
+        return new LoggingConnection(connection, u, out, pool, released,
+                statements);
     }
 
     public void close() throws SQLException {
-        connection.close();
+        if (pool == null) {
+            connection.close();
+        } else if (released.compareAndSet(false, true)) {
+            pool.giveBack(connection);
+        }
     }
 
+    /**
+     * Gives a prepared statement for the query. The statement is taken out of
+     * the statement cache if possible, and goes back to it when closed.
+     */
     public PreparedStatement prepareStatement(String query) throws SQLException {
-        return new PreparedStatement(connection.prepareStatement(query),
-                logStream);
+        java.sql.PreparedStatement ps = statements.take(query, null);
+        if (ps == null) {
+            ps = connection.prepareStatement(query);
+        }
+        return new PreparedStatement(ps, logStream, statements, query, null);
     }
 
     public void commit() throws SQLException {
@@ -53,20 +107,41 @@ public class LoggingConnection {
 
     public PreparedStatement prepareStatement(String query, String[] idFields)
             throws SQLException {
-        return new PreparedStatement(connection.prepareStatement(query,
-                idFields), logStream);
+        java.sql.PreparedStatement ps = statements.take(query, idFields);
+        if (ps == null) {
+            ps = connection.prepareStatement(query, idFields);
+        }
+        return new PreparedStatement(ps, logStream, statements, query,
+                idFields);
+    }
+
+    /**
+     * Creates an sql array, to bind a list of values as a single parameter.
+     * typeName is the sql name of the element type, e.g. "integer"
+     */
+    public Array createArrayOf(String typeName, Object[] elements)
+            throws SQLException {
+        return connection.createArrayOf(typeName, elements);
+    }
+
+    public StatementCache getStatementCache() {
+        return statements;
     }
 
     public void setAutoCommit(boolean b) throws SQLException {
         connection.setAutoCommit(b);
     }
 
+    public boolean getAutoCommit() throws SQLException {
+        return connection.getAutoCommit();
+    }
+
     public void rollback() throws SQLException {
         connection.rollback();
     }
 
     public boolean isClosed() throws SQLException {
-        return connection.isClosed();
+        return released.get() || connection.isClosed();
     }
 
 }
@@ -1,5 +1,6 @@
 package database.tools.logging;
 
+import java.sql.Array;
 import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -10,23 +11,84 @@ public class PreparedStatement implements AutoCloseable {
     private final java.sql.PreparedStatement ps;
     private final Out log;
 
+    /**
+     * The cache this statement goes back to when closed, null if not cached
+     */
+    private final StatementCache cache;
+    private final String sql;
+    private final String[] keyColumns;
+    private boolean closed = false;
+    /**
+     * Result sets of this statement, closed when the statement goes back to
+     * the cache
+     */
+    private ResultSet result;
+    private ResultSet keys;
+    private boolean fetchSizeSet = false;
+
     public PreparedStatement(java.sql.PreparedStatement ps, Out log) {
+        this(ps, log, null, null, null);
+    }
+
+    /**
+     * A statement that is given back to the cache when closed.
+     */
+    public PreparedStatement(java.sql.PreparedStatement ps, Out log,
+            StatementCache cache, String sql, String[] keyColumns) {
         this.ps = ps;
         this.log = log;
+        this.cache = cache;
+        this.sql = sql;
+        this.keyColumns = keyColumns;
     }
 
     public void setObject(int i, Object object) throws SQLException {
         ps.setObject(i, object);
     }
 
+    /**
+     * Closes the statement, or gives it back to the statement cache when it
+     * came from there.
+     */
     @Override
     public void close() throws SQLException {
-        ps.close();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (cache == null || ps.isClosed()) {
+            ps.close();
+            return;
+        }
+        try {
+            closeResults();
+            ps.clearParameters();
+            ps.clearBatch();
+            if (fetchSizeSet) {
+                ps.setFetchSize(0);
+            }
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+        cache.giveBack(sql, keyColumns, ps);
+    }
+
+    private void closeResults() throws SQLException {
+        if (result != null) {
+            result.close();
+            result = null;
+        }
+        if (keys != null) {
+            keys.close();
+            keys = null;
+        }
     }
 
     public ResultSet executeQuery() throws SQLException {
         log.println("EQ " + ps.toString());
-        return ps.executeQuery();
+        result = ps.executeQuery();
+        return result;
     }
 
     public boolean execute() throws SQLException {
@@ -47,8 +109,35 @@ public class PreparedStatement implements AutoCloseable {
         ps.executeUpdate();
     }
 
+    /**
+     * Number of rows fetched at once. Only has effect when autocommit is off,
+     * in which case postgres fetches the results through a cursor.
+     */
+    public void setFetchSize(int rows) throws SQLException {
+        fetchSizeSet = true;
+        ps.setFetchSize(rows);
+    }
+
+    public void addBatch() throws SQLException {
+        ps.addBatch();
+    }
+
+    /**
+     * Executes all statements added with addBatch, returns the update count
+     * of each of them
+     */
+    public int[] executeBatch() throws SQLException {
+        log.println("EB " + ps.toString());
+        return ps.executeBatch();
+    }
+
+    public void clearBatch() throws SQLException {
+        ps.clearBatch();
+    }
+
     public ResultSet getGeneratedKeys() throws SQLException {
-        return ps.getGeneratedKeys();
+        keys = ps.getGeneratedKeys();
+        return keys;
     }
 
     public void setBoolean(int i, boolean b) throws SQLException {
@@ -76,6 +165,10 @@ public class PreparedStatement implements AutoCloseable {
         ps.setString(i, s);
     }
 
+    public void setArray(int i, Array array) throws SQLException {
+        ps.setArray(i, array);
+    }
+
     @Override
     public String toString() {
         return ps.toString();
@@ -0,0 +1,164 @@
+package database.tools.logging;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of prepared statements of a single connection, keyed by the sql
+ * text (and the generated key columns).
+ *
+ * A statement is taken out of the cache while it is in use, and put back when
+ * the PreparedStatement wrapper is closed. This way, the same statement is
+ * never handed out twice at the same time. The least recently used statement
+ * is closed when the cache is full.
+ *
+ * Not thread safe: a connection is only used by one thread at a time.
+ *
+ * @author pietervdvn
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_SIZE = 64;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, java.sql.PreparedStatement> idle;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity
+     *            : maximum number of cached statements, 0 disables caching
+     */
+    public StatementCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                    "The statement cache size should be positive, not "
+                            + capacity);
+        }
+        this.capacity = capacity;
+        this.idle = new LinkedHashMap<Key, java.sql.PreparedStatement>(16,
+                0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, java.sql.PreparedStatement> eldest) {
+                if (size() > StatementCache.this.capacity) {
+                    evictions++;
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Takes the statement for this query out of the cache. Returns null (and
+     * counts a miss) if there is none.
+     */
+    java.sql.PreparedStatement take(String sql, String[] keyColumns) {
+        if (capacity == 0) {
+            return null;
+        }
+        java.sql.PreparedStatement ps = idle.remove(new Key(sql, keyColumns));
+        if (ps == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return ps;
+    }
+
+    /**
+     * Puts a statement that is not used anymore back in the cache. It is
+     * closed if it can not be cached.
+     */
+    void giveBack(String sql, String[] keyColumns, java.sql.PreparedStatement ps) {
+        Key key = new Key(sql, keyColumns);
+        if (capacity == 0 || idle.containsKey(key)) {
+            closeQuietly(ps);
+            return;
+        }
+        idle.put(key, ps);
+    }
+
+    /**
+     * Closes all cached statements, e.g. after the tables changed
+     */
+    public void clear() {
+        for (Iterator<java.sql.PreparedStatement> it = idle.values()
+                .iterator(); it.hasNext();) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return idle.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache " + size() + "/" + capacity + " hits: " + hits
+                + " misses: " + misses + " evictions: " + evictions;
+    }
+
+    private static void closeQuietly(java.sql.PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            Logger.err.println("Could not close cached statement: "
+                    + e.getMessage());
+        }
+    }
+
+    private static class Key {
+
+        private final String sql;
+        private final String[] keyColumns;
+
+        private Key(String sql, String[] keyColumns) {
+            this.sql = sql;
+            this.keyColumns = keyColumns;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + Arrays.hashCode(keyColumns);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sql.equals(other.sql)
+                    && Arrays.equals(keyColumns, other.keyColumns);
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package database.tools.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import database.tools.logging.Logger;
+import database.tools.logging.StatementCache;
+
+/**
+ * A small, bounded pool of jdbc connections.
+ *
+ * Connections are borrowed with borrow() and handed back with giveBack(). When
+ * all connections are in use, borrow waits at most borrowTimeout milliseconds
+ * for one to come back. Idle connections that have not been used for
+ * idleTimeout milliseconds are closed, as long as at least minSize connections
+ * stay open.
+ *
+ * @author pietervdvn
+ */
+public class ConnectionPool {
+
+    /**
+     * Opens a new physical connection when the pool needs one
+     */
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    /**
+     * Seconds given to Connection.isValid when validating on borrow
+     */
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final long idleTimeout;
+    private final boolean validate;
+
+    /**
+     * Idle connections, most recently returned first
+     */
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private final Set<Connection> borrowed = new HashSet<>();
+    /**
+     * Number of connections that are being opened right now
+     */
+    private int opening = 0;
+    private boolean closed = false;
+
+    /**
+     * The prepared statements of a connection stay valid while it is pooled,
+     * so each connection keeps its statement cache
+     */
+    private final Map<Connection, StatementCache> statementCaches = new HashMap<>();
+    private int statementCacheSize = StatementCache.DEFAULT_SIZE;
+
+    /**
+     * @param minSize
+     *            : number of idle connections that are never evicted
+     * @param maxSize
+     *            : maximum number of open connections
+     * @param borrowTimeout
+     *            : milliseconds borrow waits for a free connection
+     * @param idleTimeout
+     *            : milliseconds a connection can be idle before it is closed
+     * @param validate
+     *            : check each connection with isValid before handing it out
+     */
+    public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize,
+            long borrowTimeout, long idleTimeout, boolean validate) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(
+                    "Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeout = borrowTimeout;
+        this.idleTimeout = idleTimeout;
+        this.validate = validate;
+    }
+
+    /**
+     * Gets a connection out of the pool, opens a new one if none is idle and
+     * the pool is not full yet. Waits for a connection if the pool is full.
+     *
+     * @throws SQLException
+     *             when no connection became available within the borrow
+     *             timeout, or opening a new one failed
+     */
+    public Connection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        while (true) {
+            Connection c = null;
+            synchronized (this) {
+                checkOpen();
+                evictIdle();
+                while (idle.isEmpty() && size() >= maxSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SQLException("Timed out after "
+                                + borrowTimeout
+                                + "ms waiting for a connection, all " + maxSize
+                                + " connections are in use");
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException(
+                                "Interrupted while waiting for a connection", e);
+                    }
+                    checkOpen();
+                }
+                if (!idle.isEmpty()) {
+                    c = idle.pollFirst().connection;
+                    borrowed.add(c);
+                } else {
+                    opening++;
+                }
+            }
+
+            if (c == null) {
+                return open();
+            }
+            if (!validate || isValid(c)) {
+                return c;
+            }
+            Logger.out.println("Dropping broken pooled connection");
+            discard(c);
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. An open transaction is rolled
+     * back and autocommit is restored. Connections that fail doing so are
+     * closed instead.
+     */
+    public void giveBack(Connection c) {
+        synchronized (this) {
+            if (!borrowed.contains(c)) {
+                return;
+            }
+        }
+        try {
+            if (c.isClosed()) {
+                discard(c);
+                return;
+            }
+            if (!c.getAutoCommit()) {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Logger.err.println("Could not reset pooled connection: "
+                    + e.getMessage());
+            discard(c);
+            return;
+        }
+
+        synchronized (this) {
+            borrowed.remove(c);
+            if (closed) {
+                closeQuietly(c);
+                statementCaches.remove(c);
+            } else {
+                idle.addFirst(new Idle(c, System.currentTimeMillis()));
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections that are still borrowed are
+     * closed when they are given back.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Idle i : idle) {
+            closeQuietly(i.connection);
+            statementCaches.remove(i.connection);
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    /**
+     * Gives the statement cache that belongs to the given pooled connection
+     */
+    public synchronized StatementCache getStatementCache(Connection c) {
+        StatementCache cache = statementCaches.get(c);
+        if (cache == null) {
+            cache = new StatementCache(statementCacheSize);
+            statementCaches.put(c, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Sets the size of the statement caches of connections opened from now on
+     */
+    public synchronized void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    private Connection open() throws SQLException {
+        Connection c;
+        try {
+            c = factory.create();
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                opening--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            opening--;
+            borrowed.add(c);
+        }
+        return c;
+    }
+
+    private synchronized void discard(Connection c) {
+        borrowed.remove(c);
+        closeQuietly(c);
+        statementCaches.remove(c);
+        notifyAll();
+    }
+
+    /**
+     * Closes the connections that were idle for too long, oldest first
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        while (!idle.isEmpty() && size() > minSize
+                && now - idle.peekLast().since > idleTimeout) {
+            Connection c = idle.pollLast().connection;
+            closeQuietly(c);
+            statementCaches.remove(c);
+        }
+    }
+
+    private int size() {
+        return idle.size() + borrowed.size() + opening;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed");
+        }
+    }
+
+    private static boolean isValid(Connection c) {
+        try {
+            return c.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException e) {
+            Logger.err.println("Could not close pooled connection: "
+                    + e.getMessage());
+        }
+    }
+
+    private static class Idle {
+
+        private final Connection connection;
+        private final long since;
+
+        private Idle(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+}
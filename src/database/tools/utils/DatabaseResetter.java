@@ -10,6 +10,8 @@ import java.util.Set;
 import database.DataAccessException;
 import database.JDBCDataAccessContext;
 import database.internal.TableName;
+import database.internal.jdbc.PictureBlobs;
+import database.internal.jdbc.PictureMeta;
 import database.tools.SQLGenerator;
 import database.tools.logging.PreparedStatement;
 import database.tools.utils.MVCDefaultListeners.ResetListener;
@@ -35,6 +37,8 @@ public class DatabaseResetter {
 
     public void reset(GlobalStatus gs) throws DataAccessException, SQLException {
         dropTables();
+        // cached statements still refer to the dropped tables
+        dac.getConnection().getStatementCache().clear();
 
         Queue<TableName> toAdd = new LinkedList<>(Arrays.asList(TableName
                 .values()));
@@ -53,6 +57,8 @@ public class DatabaseResetter {
                 toAdd.add(table);
             }
         }
+        dac.getConnection().prepareStatement(PictureBlobs.CREATE).execute();
+        dac.getConnection().prepareStatement(PictureMeta.CREATE).execute();
     }
 
     public void reset() throws SQLException, DataAccessException {
@@ -69,7 +75,10 @@ public class DatabaseResetter {
             builder.append(table.toString());
             builder.append(",");
         }
-        builder.deleteCharAt(builder.length() - 1);
+        // the picture index and metadata refer to the dropped records
+        builder.append(PictureBlobs.TABLE);
+        builder.append(",");
+        builder.append(PictureMeta.TABLE);
         String query = builder.toString();
         PreparedStatement ps = dac.getConnection().prepareStatement(query);
         ps.execute();
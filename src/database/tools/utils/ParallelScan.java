@@ -0,0 +1,323 @@
+package database.tools.utils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import database.DataAccessException;
+import database.JDBCDataAccessContext;
+import database.JDBCDataAccessProvider;
+import database.UncheckedDataAccessException;
+import database.internal.Field;
+import database.internal.TableName;
+import database.internal.dao.DAO;
+import database.internal.record.Record;
+import database.tools.filter.SelectFilter;
+import database.tools.logging.PreparedStatement;
+
+/**
+ * Executes a select filter in parallel: the ids of the table (from the MIN to
+ * the MAX of its id) are split in disjoint ranges, and each range is read by
+ * a thread of its own, on a connection (context) of its own from the
+ * provider. With a pool, the pool should have a connection for each range.
+ *
+ * The records are handed over through bounded queues to the thread reading
+ * the result, so the consumer does not have to be thread safe. Unordered, the
+ * records come as soon as any range reads them; ordered, they come in the
+ * order of their id (the order of the filter itself is not used).
+ *
+ * The filter should not be changed during the scan, and should not use
+ * paging. Only for tables with a single integer id.
+ *
+ * @author pietervdvn
+ * @param <T>
+ *            Record class
+ */
+public class ParallelScan<T extends Record> {
+
+    /**
+     * Records buffered for each range
+     */
+    public static final int QUEUE_SIZE = 1000;
+    /**
+     * Milliseconds a worker waits on a full queue before checking if the scan
+     * was closed
+     */
+    private static final long OFFER_TIMEOUT = 100;
+
+    private static final Object END = new Object();
+
+    private static class Failure {
+        private final DataAccessException cause;
+
+        private Failure(DataAccessException cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final JDBCDataAccessProvider provider;
+    private final SelectFilter filter;
+    private final int parts;
+    private boolean ordered = false;
+
+    /**
+     * @param parts
+     *            : the number of ranges, and thus of threads and connections
+     */
+    public ParallelScan(JDBCDataAccessProvider provider, SelectFilter filter,
+            int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException(
+                    "Scan in at least 1 part, not " + parts);
+        }
+        // fails early for tables without single integer id or paged filters
+        filter.getRangeSQL(false);
+        this.provider = provider;
+        this.filter = filter;
+        this.parts = parts;
+    }
+
+    /**
+     * When true, the records are given in the order of their id
+     */
+    public ParallelScan<T> setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Passes all records to the consumer, on the calling thread
+     */
+    public void forEach(Consumer<? super T> consumer)
+            throws DataAccessException {
+        try (Stream<T> records = stream()) {
+            records.forEach(consumer);
+        } catch (UncheckedDataAccessException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Starts the scan and streams the records. The stream MUST be closed, which
+     * stops the threads that are still reading. Errors of the threads are
+     * thrown as UncheckedDataAccessException.
+     */
+    public Stream<T> stream() throws DataAccessException {
+        List<int[]> ranges = getRanges();
+        if (ranges.isEmpty()) {
+            return Stream.empty();
+        }
+        final Merger merger = new Merger(ranges);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(merger,
+                        Spliterator.NONNULL
+                                | (ordered ? Spliterator.ORDERED : 0)), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        merger.close();
+                    }
+                });
+    }
+
+    /**
+     * Splits the ids from MIN to MAX in at most parts ranges of {from, to},
+     * both included. Empty when the table is empty.
+     */
+    private List<int[]> getRanges() throws DataAccessException {
+        TableName table = filter.getTableName();
+        Field id = table.getIdFields()[0];
+        List<int[]> ranges = new ArrayList<>();
+        long min, max;
+        JDBCDataAccessContext dac = provider.getDataAccessContext();
+        try (PreparedStatement ps = dac.getConnection().prepareStatement(
+                "SELECT MIN(" + id.getNameColumn() + "), MAX("
+                        + id.getNameColumn() + ") FROM " + table)) {
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return ranges;
+            }
+            max = rs.getLong(2);
+        } catch (SQLException e) {
+            throw new DataAccessException("Could not get the ids of " + table,
+                    e);
+        } finally {
+            dac.close();
+        }
+        long size = (max - min + parts) / parts;
+        for (long from = min; from <= max; from += size) {
+            ranges.add(new int[] { (int) from,
+                    (int) Math.min(from + size - 1, max) });
+        }
+        return ranges;
+    }
+
+    /**
+     * Runs the ranges and merges their queues
+     */
+    private class Merger implements Iterator<T> {
+
+        private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+        private final int count;
+        private volatile boolean closed = false;
+
+        private int current = 0;
+        private int ended = 0;
+        private Object next = null;
+
+        private Merger(List<int[]> ranges) {
+            count = ranges.size();
+            BlockingQueue<Object> shared = ordered ? null
+                    : new ArrayBlockingQueue<Object>(QUEUE_SIZE * count);
+            for (int i = 0; i < count; i++) {
+                queues.add(ordered ? new ArrayBlockingQueue<Object>(QUEUE_SIZE)
+                        : shared);
+            }
+            ExecutorService workers = Executors.newFixedThreadPool(count,
+                    new ThreadFactory() {
+                private int started = 0;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "parallel scan "
+                            + filter.getTableName() + " " + started++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                final int from = ranges.get(i)[0];
+                final int to = ranges.get(i)[1];
+                final BlockingQueue<Object> queue = queues.get(i);
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        scan(from, to, queue);
+                    }
+                });
+            }
+            workers.shutdown();
+        }
+
+        private void scan(int from, int to, final BlockingQueue<Object> queue) {
+            Object last = END;
+            try {
+                JDBCDataAccessContext dac = provider.getDataAccessContext();
+                try {
+                    @SuppressWarnings("unchecked")
+                    DAO<T, ?> dao = (DAO<T, ?>) dac.getDAO(filter
+                            .getTableName());
+                    try (Stream<T> records = dao.streamRange(filter, from, to,
+                            ordered)) {
+                        Iterator<T> it = records.iterator();
+                        while (it.hasNext()) {
+                            if (!offer(queue, it.next())) {
+                                return;
+                            }
+                        }
+                    }
+                } finally {
+                    dac.close();
+                }
+            } catch (DataAccessException e) {
+                last = new Failure(e);
+            } catch (UncheckedDataAccessException e) {
+                last = new Failure(e.getCause());
+            } catch (RuntimeException e) {
+                last = new Failure(new DataAccessException(
+                        "Could not scan ids " + from + " to " + to, e));
+            }
+            offer(queue, last);
+        }
+
+        /**
+         * Waits until there is room in the queue, false if the scan was closed
+         */
+        private boolean offer(BlockingQueue<Object> queue, Object o) {
+            try {
+                while (!closed) {
+                    if (queue.offer(o, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && ended < count) {
+                Object o;
+                try {
+                    o = queues.get(current).take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new UncheckedDataAccessException(
+                            new DataAccessException("Parallel scan interrupted",
+                                    e));
+                }
+                if (o == END) {
+                    ended++;
+                    if (ordered) {
+                        current++;
+                    }
+                } else if (o instanceof Failure) {
+                    close();
+                    throw new UncheckedDataAccessException(
+                            ((Failure) o).cause);
+                } else {
+                    next = o;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T record = (T) next;
+            next = null;
+            return record;
+        }
+
+        /**
+         * Stops the workers: they stop at their next record, and close their
+         * statement and context
+         */
+        private void close() {
+            closed = true;
+            ended = count;
+            for (BlockingQueue<Object> queue : queues) {
+                queue.clear();
+            }
+        }
+
+    }
+
+}